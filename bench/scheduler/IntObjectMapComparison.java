@@ -0,0 +1,201 @@
+package scheduler;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * <p>Compares {@link IntObjectMap} against <code>HashMap&lt;Integer, V&gt;</code>, the map it replaced in the record
+ * caches and calendar indexes.</p>
+ * <p>First runs a long random sequence of puts, removes, and lookups against both maps and fails on the first answer
+ * that differs. Then measures lookup throughput over row-ID-like keys, timed over several rounds after a warm up, so
+ * the rates are rough; they are meant to show the size of the difference, not an exact figure.</p>
+ * <p>The heap each map takes is worked out from the sizes of its arrays and objects rather than measured, since heap
+ * readings taken around a garbage collection are too noisy to trust. It assumes a 64 bit JVM with compressed pointers:
+ * 12 byte object headers, 16 byte array headers, 4 byte references, and sizes rounded up to 8 bytes.</p>
+ * <p>Not part of the application. Run it with the compiled sources on the class path, for example
+ * <code>java -cp out scheduler.IntObjectMapComparison [entries]</code>, with the default of 500,000 entries.</p>
+ */
+public final class IntObjectMapComparison {
+    private IntObjectMapComparison() {}
+
+    private static final int ROUNDS = 5, LOOKUPS = 20_000_000;
+    //Results are written here so the JIT can't drop the work that made them.
+    private static volatile long sink;
+
+    /**
+     * Runs the check and the measurements.
+     * @param args Optionally, the number of entries to measure with.
+     */
+    public static void main(String[] args) {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        check(2_000_000, 5_000, 1);
+        check(2_000_000, 1 << 20, 2);
+        System.out.println("Random operations matched HashMap.");
+
+        int[] ids = new int[entries];
+        Random random = new Random(3);
+        //Auto increment IDs with a few gaps from deleted rows, like the tables the maps hold.
+        for (int i = 0, id = 1; i < entries; i++, id += 1 + (random.nextInt(10) == 0 ? random.nextInt(5) : 0))
+            ids[i] = id;
+
+        lookups(ids, random);
+
+        System.out.printf("Heap for %,d entries, not counting the values:%n", entries);
+        System.out.printf("  IntObjectMap %,12d bytes%n", intObjectMapBytes(ids));
+        System.out.printf("  HashMap      %,12d bytes%n", hashMapBytes(ids));
+    }
+
+    /**
+     * Measures lookups of a mix of present and missing IDs.
+     * @param ids The IDs to fill the maps with.
+     * @param random Picks the IDs looked up.
+     */
+    private static void lookups(int[] ids, Random random) {
+        IntObjectMap<Object> primitive = new IntObjectMap<>();
+        HashMap<Integer, Object> boxed = new HashMap<>();
+        Object value = new Object();
+        for (int id : ids) {
+            primitive.put(id, value);
+            boxed.put(id, value);
+        }
+        //A quarter of the lookups miss, like checks for records that aren't cached.
+        int[] keys = new int[1 << 16];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = random.nextInt(4) == 0 ? -1 - i : ids[random.nextInt(ids.length)];
+
+        System.out.printf("Lookups, %,d entries, best of %d rounds of %,d:%n", ids.length, ROUNDS, LOOKUPS);
+        System.out.printf("  IntObjectMap %8.1f M/s%n", bestRate(() -> {
+            int found = 0;
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (primitive.get(keys[i & (keys.length - 1)]) != null)
+                    found++;
+            }
+            return found;
+        }));
+        System.out.printf("  HashMap      %8.1f M/s%n", bestRate(() -> {
+            int found = 0;
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (boxed.get(keys[i & (keys.length - 1)]) != null)
+                    found++;
+            }
+            return found;
+        }));
+    }
+
+    /**
+     * Runs random operations against both maps and throws on the first answer that differs.
+     * @param operations The number of operations.
+     * @param keyRange Keys are picked from just below 0 up to this, so both collisions and negative keys come up.
+     * @param seed The random seed, so a failure can be repeated.
+     */
+    private static void check(int operations, int keyRange, long seed) {
+        Random random = new Random(seed);
+        IntObjectMap<Integer> primitive = new IntObjectMap<>();
+        HashMap<Integer, Integer> boxed = new HashMap<>();
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(keyRange) - 100;
+            int operation = random.nextInt(3);
+            Object expected, actual;
+            if (operation == 0) {
+                expected = boxed.put(key, i);
+                actual = primitive.put(key, i);
+            } else if (operation == 1) {
+                expected = boxed.remove(key);
+                actual = primitive.remove(key);
+            } else {
+                expected = boxed.get(key);
+                actual = primitive.get(key);
+            }
+            if (!Objects.equals(expected, actual) || boxed.size() != primitive.size())
+                throw new IllegalStateException("Differs from HashMap at operation " + i + " (seed " + seed + ")");
+        }
+        int[] count = {0};
+        primitive.forEach((key, value) -> {
+            if (!value.equals(boxed.get(key)))
+                throw new IllegalStateException("forEach differs from HashMap at key " + key + " (seed " + seed + ")");
+            count[0]++;
+        });
+        if (count[0] != boxed.size() || primitive.keys().length != boxed.size())
+            throw new IllegalStateException("Iteration differs from HashMap (seed " + seed + ")");
+    }
+
+    /**
+     * A timed run of lookups.
+     */
+    private interface Lookups {
+        /**
+         * Runs the lookups.
+         * @return How many were found, so the lookups can't be optimized away.
+         */
+        int run();
+    }
+
+    /**
+     * Times a run of lookups several times, after a warm up.
+     * @param lookups The lookups.
+     * @return The best rate, in millions of lookups a second.
+     */
+    private static double bestRate(Lookups lookups) {
+        int found = 0;
+        for (int i = 0; i < ROUNDS; i++)
+            found += lookups.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            found += lookups.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        sink = found;
+        return LOOKUPS / (best / 1_000d);
+    }
+
+    /**
+     * Works out the heap an {@link IntObjectMap} made with the default constructor takes after putting every ID, by
+     * following the same growth rule: 32 slots to start, doubling once more than half are used.
+     * @param ids The IDs put.
+     * @return The bytes held by the map and its two arrays.
+     */
+    private static long intObjectMapBytes(int[] ids) {
+        long capacity = 32;
+        for (int size = 1; size <= ids.length; size++) {
+            if (size > capacity / 2)
+                capacity *= 2;
+        }
+        //The map: header, two array references, and the size.
+        return align(12 + 4 + 4 + 4) + array(capacity, 4) + array(capacity, 4);
+    }
+
+    /**
+     * Works out the heap a <code>HashMap&lt;Integer, V&gt;</code> made with the default constructor takes after putting
+     * every ID: 16 buckets to start, doubling once it is more than three quarters full, one node per entry, and one
+     * boxed key per ID outside the cached -128 to 127.
+     * @param ids The IDs put.
+     * @return The bytes held by the map, its table, its nodes, and its keys.
+     */
+    private static long hashMapBytes(int[] ids) {
+        long table = 16;
+        long boxed = 0;
+        for (int size = 1; size <= ids.length; size++) {
+            if (size > table * 3 / 4)
+                table *= 2;
+            if (ids[size - 1] < -128 || ids[size - 1] > 127)
+                boxed++;
+        }
+        //The map: header, three view and table references, size, modCount, threshold, and load factor.
+        long map = align(12 + 4 * 4 + 4 * 4);
+        //A node: header, hash, and key, value, and next references.
+        long node = align(12 + 4 + 4 + 4 + 4);
+        //An Integer: header and value.
+        long integer = align(12 + 4);
+        return map + array(table, 4) + ids.length * node + boxed * integer;
+    }
+
+    private static long array(long length, int elementBytes) {
+        return align(16 + length * elementBytes);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,307 @@
+package scheduler;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A small pool of database connections used by {@link JDBC}.</p>
+ * <p>Connections are validated when borrowed, idle connections above the minimum size are closed after a while, and
+ * borrowing will wait up to a timeout for a connection to become free.</p>
+ */
+public class ConnectionPool {
+    private final String url, userName, password;
+    private final int minSize, maxSize;
+    private final long borrowTimeoutMillis, idleTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    //Idle connections, most recently returned first so the oldest ones are the ones that get evicted.
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+    //One permit per connection that may be handed out.
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicInteger total = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean closed = false;
+
+    /**
+     * A connection held by the pool. Closing it hands the connection back to the pool instead of closing it.
+     */
+    public final class Entry implements AutoCloseable {
+        private final Connection connection;
+        private final StatementCache statements;
+        //Written when the entry is returned and read by the idle evictor on its own thread.
+        private volatile long lastUsed = System.currentTimeMillis();
+        private boolean borrowed = false;
+
+        private Entry(Connection connection) {
+            this.connection = connection;
+            this.statements = new StatementCache(connection, statementCacheSize);
+        }
+
+        /**
+         * Returns the underlying connection. Do not close it; close the entry instead.
+         * @return The connection.
+         */
+        public Connection connection() {
+            return connection;
+        }
+
+        /**
+         * Returns the prepared statements cached for this connection.
+         * @return The statement cache.
+         */
+        public StatementCache statements() {
+            return statements;
+        }
+
+        /**
+         * Returns the connection to the pool.
+         */
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+
+    /**
+     * Snapshot of the pool's counters, used for sizing the pool.
+     * @param active Connections currently borrowed.
+     * @param idle Connections waiting in the pool.
+     * @param waiting Threads currently waiting for a connection.
+     * @param borrows Total number of successful borrows.
+     * @param timeouts Number of borrows that gave up waiting.
+     * @param averageWaitMillis Average time spent waiting for a connection.
+     * @param maxWaitMillis Longest time spent waiting for a connection.
+     */
+    public record Stats(int active, int idle, int waiting, long borrows, long timeouts,
+                        double averageWaitMillis, double maxWaitMillis) {
+        @Override
+        public String toString() {
+            return String.format("active=%d, idle=%d, waiting=%d, borrows=%d, timeouts=%d, avgWait=%.2fms, maxWait=%.2fms",
+                    active, idle, waiting, borrows, timeouts, averageWaitMillis, maxWaitMillis);
+        }
+    }
+
+    /**
+     * Creates the pool and opens the minimum number of connections.
+     * @param url The JDBC url.
+     * @param userName The database username.
+     * @param password The database password.
+     * @param minSize The number of connections kept open even when idle.
+     * @param maxSize The most connections that may be open at once.
+     * @param borrowTimeoutMillis How long to wait for a free connection before giving up.
+     * @param idleTimeoutMillis How long a connection above the minimum may sit idle before being closed.
+     * @param validationTimeoutSeconds Timeout for checking a connection is still alive when borrowed.
+     * @param statementCacheSize The most prepared statements cached per connection.
+     * @throws SQLException Thrown if the initial connections could not be opened.
+     */
+    public ConnectionPool(String url, String userName, String password, int minSize, int maxSize,
+                          long borrowTimeoutMillis, long idleTimeoutMillis, int validationTimeoutSeconds,
+                          int statementCacheSize) throws SQLException {
+        if(minSize<0||maxSize<1||minSize>maxSize)
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        for(int i = 0; i < minSize; i++)
+            idle.offerLast(open());
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>Borrows a connection, waiting up to the borrow timeout if all connections are in use.</p>
+     * <p>The connection is validated before it is handed out, and replaced if it has gone bad.</p>
+     * @return The entry holding the connection. Close it to return the connection.
+     * @throws SQLException Thrown if no connection became free in time, or a new one could not be opened.
+     */
+    public Entry borrow() throws SQLException {
+        if(closed)
+            throw new SQLException("Connection pool is closed.");
+
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if(!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLTimeoutException("Timed out after " + borrowTimeoutMillis + "ms waiting for a connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection.", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            Entry entry;
+            while ((entry = idle.pollFirst()) != null) {
+                if(isValid(entry))
+                    break;
+                discard(entry);
+            }
+            if(entry==null)
+                entry = open();
+            entry.borrowed = true;
+            active.incrementAndGet();
+            borrows.incrementAndGet();
+            return entry;
+        } catch (SQLException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a borrowed connection to the pool. Broken connections are closed rather than reused.
+     * @param entry The entry to return.
+     */
+    private void release(Entry entry) {
+        synchronized (entry) {
+            if(!entry.borrowed)
+                return;
+            entry.borrowed = false;
+        }
+        active.decrementAndGet();
+        entry.lastUsed = System.currentTimeMillis();
+        boolean usable;
+        try {
+            usable = !closed && !entry.connection.isClosed();
+            if(usable && !entry.connection.getAutoCommit()) {
+                //Don't leak a half-finished transaction to the next borrower.
+                entry.connection.rollback();
+                entry.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            usable = false;
+        }
+        if(usable)
+            idle.offerFirst(entry);
+        else
+            discard(entry);
+        permits.release();
+    }
+
+    /**
+     * Returns the current pool counters.
+     * @return The statistics.
+     */
+    public Stats stats() {
+        long count = borrows.get();
+        return new Stats(active.get(), idle.size(), waiting.get(), count, timeouts.get(),
+                count==0?0:totalWaitNanos.get() / 1_000_000d / count, maxWaitNanos.get() / 1_000_000d);
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones. Borrowed connections are closed when returned.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null)
+            discard(entry);
+    }
+
+    /**
+     * Closes connections that have been idle for too long while keeping at least the minimum open.
+     */
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        ArrayList<Entry> expired = new ArrayList<>();
+        Iterator<Entry> it = idle.descendingIterator();
+        while (it.hasNext() && total.get() - expired.size() > minSize) {
+            Entry entry = it.next();
+            if(entry.lastUsed < cutoff && idle.removeLastOccurrence(entry))
+                expired.add(entry);
+        }
+        expired.forEach(this::discard);
+
+        //Top the pool back up if connections were dropped.
+        try {
+            while (!closed && total.get() < minSize)
+                idle.offerLast(open());
+        } catch (SQLException e) {
+            System.out.println("Could not reopen pooled connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Opens a brand new connection.
+     * @return The new entry.
+     * @throws SQLException Thrown if the connection could not be opened, or the pool is already full.
+     */
+    private Entry open() throws SQLException {
+        if(total.incrementAndGet() > maxSize) {
+            total.decrementAndGet();
+            throw new SQLException("Connection pool is full.");
+        }
+        try {
+            return new Entry(DriverManager.getConnection(url, userName, password));
+        } catch (SQLException e) {
+            total.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks that an idle connection is still usable.
+     * @param entry The entry to check.
+     * @return True if the connection responded in time.
+     */
+    private boolean isValid(Entry entry) {
+        try {
+            return entry.connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Closes a connection and removes it from the pool's count.
+     * @param entry The entry to close.
+     */
+    private void discard(Entry entry) {
+        total.decrementAndGet();
+        entry.statements.close();
+        try {
+            entry.connection.close();
+        } catch (SQLException ignored) {}
+    }
+}
@@ -0,0 +1,202 @@
+package scheduler;
+
+import javafx.application.Platform;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * <p>Runs database work off the JavaFX application thread.</p>
+ * <p>Loads are run on a small, bounded pool of daemon threads and return {@link CompletableFuture}s. Results are
+ * handed back to the JavaFX thread with {@link Platform#runLater(Runnable)}, so the UI only ever touches finished
+ * data. The pool size and queue length can be changed with the <code>scheduler.dataAccess.threads</code> and
+ * <code>scheduler.dataAccess.queue</code> system properties; the pool should not be larger than the connection pool
+ * or threads will just wait on connections.</p>
+ */
+public class DataAccess {
+    private static final int threads = Integer.getInteger("scheduler.dataAccess.threads", 4);
+    private static final int queueSize = Integer.getInteger("scheduler.dataAccess.queue", 256);
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize), runnable -> {
+        Thread thread = new Thread(runnable, "data-access-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //Executors.newVirtualThreadPerTaskExecutor() when running on Java 21 or newer, looked up so older runtimes still work.
+    private static final Method virtualThreadExecutor = findVirtualThreadExecutor();
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * <p>Tracks the latest request for a piece of the UI, so results from older requests can be dropped.</p>
+     * <p>Call {@link #next()} when starting a load, and only apply its result if {@link #isCurrent(int)} is still true
+     * once it arrives.</p>
+     */
+    public static final class Generation {
+        private final AtomicInteger current = new AtomicInteger();
+
+        /**
+         * Starts a new generation, making every earlier one stale.
+         * @return The new generation.
+         */
+        public int next() {
+            return current.incrementAndGet();
+        }
+
+        /**
+         * Checks whether a generation is still the latest.
+         * @param generation The generation returned by {@link #next()}.
+         * @return True if no newer generation has been started.
+         */
+        public boolean isCurrent(int generation) {
+            return current.get() == generation;
+        }
+    }
+
+    /**
+     * Runs a load on a background thread.
+     * @param load The work to run. Must not touch the UI.
+     * @param <T> The type of the result.
+     * @return A future completed with the result, or exceptionally if the load failed or the queue was full.
+     */
+    public static <T> CompletableFuture<T> supply(Supplier<T> load) {
+        try {
+            return CompletableFuture.supplyAsync(load, executor);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Data access queue is full, dropping load.");
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Runs a load on a background thread, then applies the result on the JavaFX thread.
+     * @param load The work to run. Must not touch the UI.
+     * @param apply Applies the result to the UI. Not called if the load failed.
+     * @param <T> The type of the result.
+     * @return A future completed once the result has been applied.
+     */
+    public static <T> CompletableFuture<Void> load(Supplier<T> load, Consumer<T> apply) {
+        return supply(load).thenAcceptAsync(apply, Platform::runLater).exceptionally(DataAccess::report);
+    }
+
+    /**
+     * Runs a load on a background thread, then applies the result on the JavaFX thread if the generation is still the
+     * latest.
+     * @param generation The generation tracker for the part of the UI being loaded.
+     * @param load The work to run. Must not touch the UI.
+     * @param apply Applies the result to the UI. Not called if the load failed or a newer load has started.
+     * @param <T> The type of the result.
+     * @return A future completed once the result has been applied or dropped.
+     */
+    public static <T> CompletableFuture<Void> load(Generation generation, Supplier<T> load, Consumer<T> apply) {
+        int current = generation.next();
+        return load(load, result -> {
+            if (generation.isCurrent(current))
+                apply.accept(result);
+        });
+    }
+
+    /**
+     * <p>Runs a group of independent loads at the same time, then applies all of their results together.</p>
+     * <p>Each load returns the action that applies its result. The loads run on virtual threads when the runtime has
+     * them, or on the data access pool otherwise. Once every load has finished, the actions are run in order in a
+     * single pass on the JavaFX thread, so the UI updates once. A load that fails is reported and skipped; the rest
+     * are still applied.</p>
+     * @param loads The loads to run. Must not touch the UI.
+     * @return A future completed once every result has been applied.
+     */
+    public static CompletableFuture<Void> fanOut(List<Supplier<Runnable>> loads) {
+        ExecutorService group = newTaskGroup();
+        Executor runner = group != null ? group : executor;
+        ArrayList<CompletableFuture<Runnable>> futures = new ArrayList<>();
+        for (Supplier<Runnable> load : loads) {
+            try {
+                futures.add(CompletableFuture.supplyAsync(load, runner));
+            } catch (RejectedExecutionException e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        if (group != null)
+            group.shutdown(); //Lets the group's threads finish, no new tasks are added.
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .handle((ignored, e) -> futures)
+                .thenAcceptAsync(results -> {
+                    for (CompletableFuture<Runnable> result : results) {
+                        try {
+                            result.join().run();
+                        } catch (CompletionException e) {
+                            report(e.getCause());
+                        } catch (RuntimeException e) {
+                            report(e);
+                        }
+                    }
+                }, Platform::runLater);
+    }
+
+    /**
+     * Runs an action on the JavaFX thread, right away if already on it.
+     * @param action The action to run.
+     */
+    public static void runOnFxThread(Runnable action) {
+        if (Platform.isFxApplicationThread())
+            action.run();
+        else
+            Platform.runLater(action);
+    }
+
+    /**
+     * Starts a new virtual thread per task executor for a single group of loads.
+     * @return The executor, or null if this runtime has no virtual threads.
+     */
+    private static ExecutorService newTaskGroup() {
+        if (virtualThreadExecutor == null)
+            return null;
+        try {
+            return (ExecutorService) virtualThreadExecutor.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the virtual thread executor factory.
+     * @return The factory method, or null if this runtime doesn't have one.
+     */
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Prints a failed load the same way the rest of the data layer reports errors.
+     * @param e The failure.
+     * @return Always null.
+     */
+    private static Void report(Throwable e) {
+        System.out.println("Background load failed.");
+        e.printStackTrace();
+        return null;
+    }
+}
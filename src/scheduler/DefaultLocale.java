@@ -137,7 +137,7 @@ public class DefaultLocale {
         put("no_caps", "NO", "NON");
         put("date", "Date", "Date");
         put("upcoming_alarm", "You have an appointment starting within 15 minutes.\n\nAppointment details\nID: %1%\nStart Time: %2%","Vous avez un rendez-vous qui commence dans 15 minutes.\n\nDétails du rendez-vous\nID: %1%\nHeure de début: %2%");
-        put("time_collision", "Customer has an existing appointment and is unavailable between %1% and %2%.", "Le client a un rendez-vous existant et n'est pas disponible entre %1% et %2%.");
+        put("time_collision", "Overlaps appointment %1% (%2%) from %3% to %4%, for the same %5%.", "Chevauche le rendez-vous %1% (%2%) de %3% à %4%, pour le même %5%.");
         put("new_edit_customer", "New/Edit Customers", "Nouveaux/Modifier les Clients");
         put("reports", "Reports", "Rapports");
         put("customers_by_month", "Customers By Month/Type", "Clients par Mois/Type");
@@ -0,0 +1,271 @@
+package scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Map from <code>int</code> keys to objects, for anything keyed by a row ID.</p>
+ * <p>Keys are stored in a plain <code>int[]</code> next to an array of values, using open addressing with linear
+ * probing, so lookups don't box the key and there is no entry object per mapping. Compared to a
+ * <code>HashMap&lt;Integer, V&gt;</code> this saves the <code>Integer</code> and the node for every record, roughly
+ * 40 bytes each on a 64 bit JVM with compressed pointers. The table is kept at most half full and doubles when it
+ * grows past that. Removal shifts later entries back instead of leaving tombstones, so lookups stay short after many
+ * removals.</p>
+ * <p>Values can't be null, since an empty value slot marks a free one. Not thread safe; callers sharing a map must
+ * lock around it. {@link #get(int)} never throws or loops forever while racing a writer, so it can be used with
+ * optimistic reads as long as the result is thrown away when the read turns out to have raced.</p>
+ * @param <V> The value type.
+ */
+public final class IntObjectMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    /**
+     * Creates an empty map.
+     */
+    public IntObjectMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Creates an empty map sized to hold a number of entries without growing.
+     * @param expectedSize The number of entries expected.
+     */
+    public IntObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Returns the value for a key.
+     * @param key The key.
+     * @return The value, or null if the key isn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int[] keys = this.keys;
+        Object[] values = this.values;
+        //Only differs while racing a resize; the caller has to retry anyway.
+        if (keys.length != values.length)
+            return null;
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+            Object value = values[i];
+            if (value == null)
+                return null;
+            if (keys[i] == key)
+                return (V) value;
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether the map has a key.
+     * @param key The key.
+     * @return True if the key is in the map.
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Adds or replaces the value for a key.
+     * @param key The key.
+     * @param value The value. Must not be null.
+     * @return The value it replaced, or null if the key wasn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null)
+            throw new NullPointerException("IntObjectMap values can't be null.");
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                values[i] = value;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length / 2)
+            resize(keys.length * 2);
+        return null;
+    }
+
+    /**
+     * Removes a key.
+     * @param key The key.
+     * @return The value it had, or null if the key wasn't in the map.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V old = (V) values[i];
+                shiftBack(i, mask);
+                size--;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Removes a key only if it currently maps to the value.
+     * @param key The key.
+     * @param value The value expected, compared by identity.
+     * @return True if it was removed.
+     */
+    public boolean remove(int key, V value) {
+        if (get(key) != value || value == null)
+            return false;
+        remove(key);
+        return true;
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return The size.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks whether the map has no entries.
+     * @return True if empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every entry, keeping the current capacity.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Functional interface for visiting entries without boxing their keys.
+     * @param <V> The value type.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        /**
+         * Visits one entry.
+         * @param key The key.
+         * @param value The value.
+         */
+        void accept(int key, V value);
+    }
+
+    /**
+     * Visits every entry, in no particular order. The map must not be changed while visiting.
+     * @param consumer Called once per entry.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                consumer.accept(keys[i], (V) values[i]);
+        }
+    }
+
+    /**
+     * Returns a copy of every value, in no particular order.
+     * @return The values.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        ArrayList<V> list = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null)
+                list.add((V) value);
+        }
+        return list;
+    }
+
+    /**
+     * Returns a copy of every key, in no particular order.
+     * @return The keys.
+     */
+    public int[] keys() {
+        int[] list = new int[size];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null)
+                list[n++] = keys[i];
+        }
+        return list;
+    }
+
+    /**
+     * Empties a slot, moving any later entries in its probe run back so lookups still find them.
+     * @param free The slot to empty.
+     * @param mask The table's index mask.
+     */
+    private void shiftBack(int free, int mask) {
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null)
+                break;
+            int home = slot(keys[i], mask);
+            //Move the entry only if the free slot lies on its path from its home slot.
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                keys[free] = keys[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = null;
+    }
+
+    /**
+     * Moves every entry into a table of a new size.
+     * @param capacity The new number of slots, a power of 2.
+     */
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] newKeys = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == null)
+                continue;
+            int i = slot(oldKeys[j], mask);
+            while (newValues[i] != null)
+                i = (i + 1) & mask;
+            newKeys[i] = oldKeys[j];
+            newValues[i] = oldValues[j];
+        }
+        //A racing get may see one new array and one old one, which it detects by their lengths.
+        values = newValues;
+        keys = newKeys;
+    }
+
+    /**
+     * Returns a key's home slot. Row IDs are sequential, so they are mixed first to spread runs of IDs out.
+     * @param key The key.
+     * @param mask The table's index mask.
+     * @return The slot.
+     */
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -1,18 +1,52 @@
 package scheduler;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
 import java.sql.*;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
- * Handles connection to the database.
+ * <p>Handles connection to the database.</p>
+ * <p>Connections are borrowed from a {@link ConnectionPool} for the length of a single statement, so a dropped
+ * connection no longer ends the session and work on other threads does not have to queue behind one connection.
+ * Each pooled connection keeps its own cache of prepared statements, so repeated queries skip the prepare step.
+ * Pool sizes, timeouts, and the statement cache size can be changed with the <code>scheduler.pool.*</code> system
+ * properties.</p>
  */
 public class JDBC {
     private static final String protocol = "jdbc";
     private static final String vendor = ":mysql:";
     private static final String location = "//localhost/";
     private static final String databaseName = "client_schedule";
-    private static final String jdbcUrl = protocol + vendor + location + databaseName + "?connectionTimeZone = SERVER"; // LOCAL
+    private static final String jdbcUrl = protocol + vendor + location + databaseName + "?connectionTimeZone = SERVER&useServerPrepStmts=true&rewriteBatchedStatements=true"; // LOCAL
     private static final String userName = "sqlUser"; // Username
     private static final String password = "Passw0rd!"; // Password
-    private static Connection connection = null;  // Connection Interface
+
+    private static final int poolMinSize = Integer.getInteger("scheduler.pool.min", 1);
+    private static final int poolMaxSize = Integer.getInteger("scheduler.pool.max", 4);
+    private static final long poolBorrowTimeout = Long.getLong("scheduler.pool.borrowTimeoutMillis", 10_000L);
+    private static final long poolIdleTimeout = Long.getLong("scheduler.pool.idleTimeoutMillis", 300_000L);
+    private static final int poolValidationTimeout = Integer.getInteger("scheduler.pool.validationTimeoutSeconds", 2);
+    private static final int statementCacheSize = Integer.getInteger("scheduler.pool.statementCacheSize", 64);
+    private static ConnectionPool pool = null;  // Pool of Connection Interfaces
+
+    /**
+     * Fetch size that makes MySQL hand rows over one at a time instead of reading the whole result into memory.
+     */
+    public static final int STREAM_ROW_BY_ROW = Integer.MIN_VALUE;
+    private static final int streamFetchSize = Integer.getInteger("scheduler.jdbc.streamFetchSize", STREAM_ROW_BY_ROW);
+    private static final int batchChunkSize = Integer.getInteger("scheduler.jdbc.batchChunkSize", 500);
+    //Looking up the factory searches the class path, so it is done once. Null if it couldn't be found.
+    private static final RowSetFactory rowSetFactory = newRowSetFactory();
 
     /**
      * Functional interface to provide a function for lambda insertion into processing each row of a result set.
@@ -31,42 +65,235 @@ public class JDBC {
     }
 
     /**
-     * <p>Connects to the database and stores the connection for later use.</p>
+     * Functional interface for processing rows of a streamed result set, where the total row count is not known.
+     */
+    @FunctionalInterface
+    public interface RowProcessor {
+        /**
+         * <p>Function to process results from the query, called per row.</p>
+         * <p>Do not call {@link ResultSet#next()} as it is called automatically.</p>
+         * @param resultSet The set to pull information from.
+         * @param row The row number it is currently on.
+         * @throws SQLException Thrown if there was a problem with getting information from the {@link ResultSet}.
+         */
+        void process(ResultSet resultSet, int row) throws SQLException;
+    }
+
+    /**
+     * Functional interface for turning the current row of a result set into an object.
+     * @param <T> The type of object made from each row.
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        /**
+         * Reads the current row. Do not call {@link ResultSet#next()}.
+         * @param resultSet The set to pull information from.
+         * @return The object for the row.
+         * @throws SQLException Thrown if there was a problem with getting information from the {@link ResultSet}.
+         */
+        T map(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Results of running a {@link Batch}, in the order the rows were added.
+     * @param updateCounts The number of rows each statement changed, or {@link Statement#SUCCESS_NO_INFO}.
+     * @param generatedKeys The key generated by each statement, or -1 if the statement did not generate one.
+     */
+    public record BatchResult(int[] updateCounts, long[] generatedKeys) {
+        /**
+         * Returns the total number of rows changed by the batch.
+         * @return The total, not counting statements the driver gave no count for.
+         */
+        public int totalUpdated() {
+            return Arrays.stream(updateCounts).filter(count -> count > 0).sum();
+        }
+    }
+
+    /**
+     * <p>Collects several statements and sends them to the database together, in a single transaction.</p>
+     * <p>Rows that share the same SQL one after another are grouped into one JDBC batch, sent in chunks of
+     * {@link #chunkSize(int)} rows. If any statement fails, nothing in the batch is saved.</p>
+     */
+    public static final class Batch {
+        private final ArrayList<String> statements = new ArrayList<>();
+        private final ArrayList<Object[]> rows = new ArrayList<>();
+        private int chunkSize = batchChunkSize;
+        private boolean generatedKeys = false;
+
+        private Batch() {}
+
+        /**
+         * Adds a statement to the batch.
+         * @param sqlStatement The SQL statement.
+         * @param vars Optional additional vars. Will replace '?' within the statement.
+         * @return The batch, for chaining.
+         */
+        public Batch add(String sqlStatement, Object... vars) {
+            statements.add(sqlStatement);
+            rows.add(vars);
+            return this;
+        }
+
+        /**
+         * Sets how many rows are sent to the database at a time.
+         * @param chunkSize Rows per round trip. Must be at least 1.
+         * @return The batch, for chaining.
+         */
+        public Batch chunkSize(int chunkSize) {
+            if(chunkSize<1)
+                throw new IllegalArgumentException("Chunk size must be at least 1.");
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Asks for the keys generated by inserts to be returned in the {@link BatchResult}.
+         * @return The batch, for chaining.
+         */
+        public Batch returnGeneratedKeys() {
+            generatedKeys = true;
+            return this;
+        }
+
+        /**
+         * Returns how many statements have been added.
+         * @return The number of statements.
+         */
+        public int size() {
+            return rows.size();
+        }
+
+        /**
+         * Runs every statement in the batch in a single transaction.
+         * @return The per-row results. Will return null if the batch errored, in which case nothing was saved.
+         */
+        public BatchResult execute() {
+            if (pool == null) {
+                System.out.println("Could not execute batch of " + size() + " statements because SQL database isn't connected.");
+                return null;
+            }
+            int[] updateCounts = new int[size()];
+            long[] keys = new long[size()];
+            Arrays.fill(keys, -1);
+            if(size()==0)
+                return new BatchResult(updateCounts, keys);
+
+            try (ConnectionPool.Entry entry = pool.borrow()) {
+                Connection connection = entry.connection();
+                connection.setAutoCommit(false);
+                try {
+                    int start = 0;
+                    while (start < size()) {
+                        String sqlStatement = statements.get(start);
+                        int end = start;
+                        while (end < size() && statements.get(end).equals(sqlStatement))
+                            end++;
+                        PreparedStatement statement = generatedKeys?
+                                entry.statements().prepareWithKeys(sqlStatement):
+                                entry.statements().prepare(sqlStatement, ResultSet.TYPE_FORWARD_ONLY);
+                        for (int chunk = start; chunk < end; chunk += chunkSize) {
+                            int chunkEnd = Math.min(end, chunk + chunkSize);
+                            for (int row = chunk; row < chunkEnd; row++) {
+                                bind(statement, rows.get(row));
+                                statement.addBatch();
+                            }
+                            int[] counts = statement.executeBatch();
+                            System.arraycopy(counts, 0, updateCounts, chunk, Math.min(counts.length, chunkEnd - chunk));
+                            if(generatedKeys) {
+                                try (ResultSet set = statement.getGeneratedKeys()) {
+                                    int row = chunk;
+                                    while (row < chunkEnd && set.next())
+                                        keys[row++] = set.getLong(1);
+                                }
+                            }
+                        }
+                        start = end;
+                    }
+                    connection.commit();
+                    return new BatchResult(updateCounts, keys);
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                System.out.println("Could not execute batch of " + size() + " statements, starting with: " + statements.get(0));
+                e.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Starts a new batch of statements. See {@link Batch}.
+     * @return The empty batch.
+     */
+    public static Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * <p>Connects to the database and sets up the connection pool for later use.</p>
      * <p>Must be called before SQL Statement/Query functions will work.</p>
      */
     public static void makeConnection() {
         try {
-            connection = DriverManager.getConnection(jdbcUrl, userName, password); // reference Connection object
+            pool = new ConnectionPool(jdbcUrl, userName, password, poolMinSize, poolMaxSize,
+                    poolBorrowTimeout, poolIdleTimeout, poolValidationTimeout, statementCacheSize);
             System.out.println("Connection successful!");
         } catch (Exception e) {
             System.out.println("Error:" + e.getMessage());
         }
     }
 
+    /**
+     * Closes every pooled connection. Called when the application exits.
+     */
+    public static void closeConnection() {
+        if(pool!=null) {
+            System.out.println("Connection pool: " + pool.stats());
+            System.out.println("Statement cache: " + StatementCache.stats());
+            pool.close();
+            pool = null;
+        }
+    }
+
+    /**
+     * Returns the current connection pool statistics (active, idle, and wait times).
+     * @return The statistics, or null if the database isn't connected.
+     */
+    public static ConnectionPool.Stats getPoolStats() {
+        return pool!=null?pool.stats():null;
+    }
+
+    /**
+     * Returns the statement cache counters combined across every pooled connection.
+     * @return The statistics.
+     */
+    public static StatementCache.Stats getStatementCacheStats() {
+        return StatementCache.stats();
+    }
+
     /**
      * Returns a ResultSet from the sql statement provided for the calling function to process.
      * @param sqlStatement The SQL statement/query
      * @param vars Optional additional vars. Will replace '?' within the query. Query will likely fail if
-     *             the wrong number of vars are provided. Will only accept integers and strings.
-     * @return The ResultSet. Will return null if the query errored for any reason.
+     *             the wrong number of vars are provided. See {@link #bind} for the accepted types.
+     * @return The ResultSet. The rows are copied out so the connection can go straight back to the pool; the set
+     *         stays readable after the call. Will return null if the query errored for any reason.
      */
     public static ResultSet getResults(String sqlStatement,Object... vars) {
-        if (connection != null) {
-            try {
-
-                PreparedStatement statement = connection.prepareStatement(sqlStatement);
-
-                if(vars!=null) { //Add the vars to the statement
-                    int i=1;
-                    for (Object var : vars) {
-                        if(var instanceof Integer)
-                            statement.setInt(i++,(int)var);
-                        else if(var instanceof String)
-                            statement.setString(i++,(String)var);
-                        else i++;
-                    }
+        if (pool != null) {
+            try (ConnectionPool.Entry entry = pool.borrow()) {
+                PreparedStatement statement = prepare(entry, sqlStatement, ResultSet.TYPE_FORWARD_ONLY, 0, vars);
+                try (ResultSet set = statement.executeQuery()) {
+                    if (rowSetFactory == null)
+                        throw new SQLException("No RowSetFactory is available to copy the results into.");
+                    CachedRowSet rows = rowSetFactory.createCachedRowSet();
+                    rows.populate(set);
+                    return rows;
                 }
-                return statement.executeQuery();
             }catch (SQLException e){
                 System.out.println("Could not get results of: " + sqlStatement);
                 e.printStackTrace();
@@ -78,6 +305,20 @@ public class JDBC {
         return null;
     }
 
+    /**
+     * Finds the factory {@link #getResults} copies rows with.
+     * @return The factory, or null if none could be found.
+     */
+    private static RowSetFactory newRowSetFactory() {
+        try {
+            return RowSetProvider.newFactory();
+        } catch (SQLException e) {
+            System.out.println("Could not create a RowSetFactory.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     /**
      * <p>Does processing on a SQL statement/query using a provided processor function.</p>
      * <p>Function is run on each row sequentially.</p>
@@ -85,26 +326,14 @@ public class JDBC {
      * @param sqlStatement The SQL statement/query
      * @param process The function/lambda to run on each row in a result set.
      * @param vars Optional additional vars. Will replace '?' within the query. Query will likely fail if
-     *             the wrong number of vars are provided. Will only accept integers and strings.
+     *             the wrong number of vars are provided. See {@link #bind} for the accepted types.
      */
     public static void process(String sqlStatement, ResultSetProcessor process, Object... vars) {
-        if (connection != null)
+        if (pool != null)
         {
-            try{
-                PreparedStatement statement = connection.prepareStatement(sqlStatement,ResultSet.TYPE_SCROLL_INSENSITIVE,ResultSet.CONCUR_READ_ONLY);
-                if(vars!=null) {
-                    int i=1;
-                    for (Object var : vars) {
-                        if(var instanceof Integer)
-                            statement.setInt(i++,(int)var);
-                        else if(var instanceof String)
-                            statement.setString(i++,(String)var);
-                        else throw  new IllegalArgumentException();
-                    }
-                }
-
-                ResultSet set = statement.executeQuery();
-                if(set!=null) {
+            try (ConnectionPool.Entry entry = pool.borrow()){
+                PreparedStatement statement = prepare(entry, sqlStatement, ResultSet.TYPE_SCROLL_INSENSITIVE, 0, vars);
+                try (ResultSet set = statement.executeQuery()) {
                     int i = 0;
                     set.last();
                     int count = set.getRow();
@@ -113,8 +342,6 @@ public class JDBC {
                         process.process(set,i++,count);
                     }
                 }
-                else
-                    System.out.println("Could not process command: \"" + sqlStatement + "\" due to results being null");
             }catch (SQLException e){
                 System.out.println("Could not process command: " + sqlStatement);
                 e.printStackTrace();
@@ -127,28 +354,126 @@ public class JDBC {
         }
     }
 
+    /**
+     * <p>Processes a query row by row without loading the whole result into memory first.</p>
+     * <p>Uses a forward only result set, so unlike {@link #process(String, ResultSetProcessor, Object...)} the total
+     * number of rows is not known. Meant for reports and exports over large tables.</p>
+     * @param sqlStatement The SQL statement/query
+     * @param process The function/lambda to run on each row in a result set.
+     * @param vars Optional additional vars. Will replace '?' within the query. Query will likely fail if
+     *             the wrong number of vars are provided. See {@link #bind} for the accepted types.
+     * @return True if every row was processed, false if the query failed.
+     */
+    public static boolean processStreaming(String sqlStatement, RowProcessor process, Object... vars) {
+        return processStreaming(sqlStatement, streamFetchSize, process, vars);
+    }
+
+    /**
+     * <p>Processes a query row by row without loading the whole result into memory first.</p>
+     * <p>Uses a forward only result set, so the total number of rows is not known.</p>
+     * @param sqlStatement The SQL statement/query
+     * @param fetchSize How many rows the driver reads at a time. {@link #STREAM_ROW_BY_ROW} streams single rows.
+     * @param process The function/lambda to run on each row in a result set.
+     * @param vars Optional additional vars. Will replace '?' within the query. Query will likely fail if
+     *             the wrong number of vars are provided. See {@link #bind} for the accepted types.
+     * @return True if every row was processed, false if the query failed.
+     */
+    public static boolean processStreaming(String sqlStatement, int fetchSize, RowProcessor process, Object... vars) {
+        if (pool != null)
+        {
+            try (ConnectionPool.Entry entry = pool.borrow()){
+                PreparedStatement statement = prepare(entry, sqlStatement, ResultSet.TYPE_FORWARD_ONLY, fetchSize, vars);
+                try (ResultSet set = statement.executeQuery()) {
+                    int i = 0;
+                    while (set.next()) {
+                        process.process(set,i++);
+                    }
+                }
+                return true;
+            }catch (SQLException e){
+                System.out.println("Could not process command: " + sqlStatement);
+                e.printStackTrace();
+            }
+        }
+        else
+        {
+            System.out.println("Could not process command: \"" + sqlStatement +
+                    "\" because SQL database isn't connected.");
+        }
+        return false;
+    }
+
+    /**
+     * <p>Returns a lazily read stream of the query's rows.</p>
+     * <p>The connection stays borrowed until the stream is used up or closed, so the stream should be used in a
+     * try-with-resources block. Rows are only read from the database as the stream asks for them.</p>
+     * @param sqlStatement The SQL statement/query
+     * @param fetchSize How many rows the driver reads at a time. {@link #STREAM_ROW_BY_ROW} streams single rows.
+     * @param mapper Turns each row into an object.
+     * @param vars Optional additional vars. Will replace '?' within the query. Query will likely fail if
+     *             the wrong number of vars are provided. See {@link #bind} for the accepted types.
+     * @param <T> The type of object made from each row.
+     * @return The stream of rows. Will be empty if the query errored. Reading a row that fails throws an
+     *         {@link IllegalStateException}.
+     */
+    public static <T> Stream<T> stream(String sqlStatement, int fetchSize, RowMapper<T> mapper, Object... vars) {
+        if (pool == null) {
+            System.out.println("Could not stream results of: \"" + sqlStatement +
+                    "\" because SQL database isn't connected.");
+            return Stream.empty();
+        }
+        ConnectionPool.Entry entry = null;
+        try {
+            entry = pool.borrow();
+            ResultSet set = prepare(entry, sqlStatement, ResultSet.TYPE_FORWARD_ONLY, fetchSize, vars).executeQuery();
+            ConnectionPool.Entry borrowed = entry;
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                //Only once, the entry may already belong to someone else by the time the stream is closed.
+                if(released.getAndSet(true))
+                    return;
+                try {
+                    set.close();
+                } catch (SQLException ignored) {}
+                borrowed.close();
+            };
+            Spliterator<T> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    try {
+                        if (released.get() || !set.next()) {
+                            release.run();
+                            return false;
+                        }
+                        action.accept(mapper.map(set));
+                        return true;
+                    } catch (SQLException e) {
+                        release.run();
+                        throw new IllegalStateException("Could not read row of: " + sqlStatement, e);
+                    }
+                }
+            };
+            return StreamSupport.stream(rows, false).onClose(release);
+        } catch (SQLException e) {
+            if(entry!=null)
+                entry.close();
+            System.out.println("Could not stream results of: " + sqlStatement);
+            e.printStackTrace();
+        }
+        return Stream.empty();
+    }
+
     /**
      * Executes a SQL statement/query that does not require results.
      * @param sqlStatement The statement/query.
      * @param vars Optional additional vars. Will replace '?' within the query. Query will likely fail if
-     *             the wrong number of vars are provided. Will only accept integers and strings.
+     *             the wrong number of vars are provided. See {@link #bind} for the accepted types.
      * @return Returns true if the query executed without known issues. False otherwise.
      */
     public static boolean execute(String sqlStatement, Object... vars) {
-        if (connection != null)
-            try {
-                PreparedStatement statement = connection.prepareStatement(sqlStatement,ResultSet.TYPE_SCROLL_INSENSITIVE,ResultSet.CONCUR_READ_ONLY);
-                if(vars!=null) {
-                    int i=1;
-                    for (Object var : vars) {
-                        if(var instanceof Integer)
-                            statement.setInt(i++,(int)var);
-                        else if(var instanceof String)
-                            statement.setString(i++,(String)var);
-                        else i++;
-                    }
-                }
-                statement.execute();
+        if (pool != null)
+            try (ConnectionPool.Entry entry = pool.borrow()) {
+                prepare(entry, sqlStatement, ResultSet.TYPE_FORWARD_ONLY, 0, vars).execute();
                 return true;
             }catch(SQLException e){
                 System.out.println("Could not execute statement: " + sqlStatement);
@@ -159,4 +484,84 @@ public class JDBC {
                     "\" because SQL database isn't connected.");
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Executes an insert statement and returns the key the database generated for the new row.
+     * @param sqlStatement The insert statement.
+     * @param vars Optional additional vars. Will replace '?' within the statement.
+     * @return The generated key of the new row. Returns -1 if the insert failed or no key was generated.
+     */
+    public static int insert(String sqlStatement, Object... vars) {
+        if (pool != null)
+            try (ConnectionPool.Entry entry = pool.borrow()) {
+                PreparedStatement statement = entry.statements().prepareWithKeys(sqlStatement);
+                bind(statement, vars);
+                statement.executeUpdate();
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    if(keys.next())
+                        return keys.getInt(1);
+                }
+                System.out.println("Insert did not generate a key: " + sqlStatement);
+            }catch(SQLException e){
+                System.out.println("Could not execute insert: " + sqlStatement);
+                e.printStackTrace();
+            }
+        else
+            System.out.println("Could not execute insert: \"" + sqlStatement +
+                    "\" because SQL database isn't connected.");
+        return -1;
+    }
+
+    /**
+     * Gets a cached statement for the borrowed connection and fills in its vars.
+     * @param entry The borrowed connection.
+     * @param sqlStatement The SQL statement/query.
+     * @param resultSetType The {@link ResultSet} type the statement is prepared with.
+     * @param fetchSize The driver fetch size, 0 for the driver's default.
+     * @param vars The vars replacing '?' within the query.
+     * @return The statement, ready to run. Left open so it can be reused.
+     * @throws SQLException Thrown if the statement could not be prepared.
+     */
+    private static PreparedStatement prepare(ConnectionPool.Entry entry, String sqlStatement, int resultSetType,
+                                             int fetchSize, Object... vars) throws SQLException {
+        PreparedStatement statement = entry.statements().prepare(sqlStatement, resultSetType);
+        statement.setFetchSize(fetchSize); //Cached statements keep their fetch size, so always set it.
+        bind(statement, vars);
+        return statement;
+    }
+
+    /**
+     * <p>Fills in the '?' vars of a statement.</p>
+     * <p>Accepts integers, longs, booleans, strings, {@link Timestamp}s, {@link Instant}s, and {@link ZonedDateTime}s.
+     * Times are bound as timestamps of the same instant, so they no longer need formatting into the SQL text. A null
+     * var binds SQL NULL.</p>
+     * @param statement The statement.
+     * @param vars The vars, in order.
+     * @throws SQLException Thrown if a var could not be set, or is of a type that can't be bound.
+     */
+    private static void bind(PreparedStatement statement, Object... vars) throws SQLException {
+        if(vars!=null) { //Add the vars to the statement
+            int i=1;
+            for (Object var : vars) {
+                if(var == null)
+                    statement.setNull(i++, Types.NULL);
+                else if(var instanceof Integer)
+                    statement.setInt(i++,(int)var);
+                else if(var instanceof Long)
+                    statement.setLong(i++,(long)var);
+                else if(var instanceof Boolean)
+                    statement.setBoolean(i++,(boolean)var);
+                else if(var instanceof String)
+                    statement.setString(i++,(String)var);
+                else if(var instanceof Timestamp)
+                    statement.setTimestamp(i++,(Timestamp)var);
+                else if(var instanceof Instant)
+                    statement.setTimestamp(i++,Timestamp.from((Instant)var));
+                else if(var instanceof ZonedDateTime)
+                    statement.setTimestamp(i++,Timestamp.from(((ZonedDateTime)var).toInstant()));
+                else
+                    throw new SQLException("Cannot bind var " + i + " of type " + var.getClass().getName() + ".");
+            }
+        }
+    }
+}
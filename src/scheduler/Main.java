@@ -7,6 +7,9 @@ import javafx.stage.Stage;
 import scheduler.controllers.MenuController;
 import scheduler.controllers.PreferencesController;
 import scheduler.controllers.ReportController;
+import scheduler.records.MonthCache;
+import scheduler.records.RecordCache;
+import scheduler.records.ReferenceSnapshot;
 
 /**
  * <p>The main class for the application.</p>
@@ -54,6 +57,20 @@ public class Main extends Application {
         primaryStage.show();
     }
 
+    /**
+     * Closes the database connections when the application exits, and logs how well the record caches, string pool,
+     * and month cache did, and how many refreshes were coalesced.
+     */
+    @Override
+    public void stop() {
+        RecordCache.allStats().forEach(stats -> System.out.println("Record cache " + stats));
+        System.out.println("String pool: " + StringPool.stats());
+        System.out.println("Month cache: " + MonthCache.stats());
+        System.out.println("Refreshes: " + RefreshScheduler.flushes() + " flushes");
+        RefreshScheduler.allStats().forEach(stats -> System.out.println("Refresh " + stats));
+        JDBC.closeConnection();
+    }
+
     /**
      * Entry point to the application.
      * @param args Passed to the application.launch command.
@@ -61,6 +78,7 @@ public class Main extends Application {
     public static void main(String[] args) {
         DefaultLocale.init();
         JDBC.makeConnection();
+        ReferenceSnapshot.load();
         launch(args);
     }
 
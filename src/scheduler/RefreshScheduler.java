@@ -0,0 +1,140 @@
+package scheduler;
+
+import javafx.application.Platform;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Folds repeated refreshes of the UI together, so a single user action runs each refresh at most once.</p>
+ * <p>Each part of the UI that reloads registers a {@link Task}. {@link Task#invalidate()} only marks the task dirty and
+ * schedules a flush on the JavaFX thread, if one isn't already pending. The flush runs once the current event has been
+ * handled, so every invalidation made while handling it ends up as one run. Dirty tasks run in the order they were
+ * registered: a task invalidated by one that ran before it in the same flush still runs in that flush, and one that
+ * already ran waits for the next.</p>
+ */
+public final class RefreshScheduler {
+    private RefreshScheduler() {}
+
+    private static final List<Task> tasks = new CopyOnWriteArrayList<>();
+    private static final LongAdder flushes = new LongAdder();
+    //Only touched on the JavaFX thread.
+    private static boolean flushPending = false;
+
+    /**
+     * Counters for one task.
+     * @param name The task's name.
+     * @param requests Times the task was invalidated.
+     * @param runs Times the task actually ran.
+     */
+    public record Stats(String name, long requests, long runs) {
+        /**
+         * Returns how many requests were folded into another run.
+         * @return Requests that didn't cause a run of their own.
+         */
+        public long coalesced() {
+            return requests - runs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: requests=%d, runs=%d, coalesced=%d", name, requests, runs, coalesced());
+        }
+    }
+
+    /**
+     * A refresh that can be requested any number of times and runs once per flush.
+     */
+    public static final class Task {
+        private final String name;
+        private final Runnable refresh;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder runs = new LongAdder();
+        //Only touched on the JavaFX thread.
+        private boolean dirty = false;
+
+        private Task(String name, Runnable refresh) {
+            this.name = name;
+            this.refresh = refresh;
+        }
+
+        /**
+         * Marks the task as needing to run on the next flush. Can be called from any thread.
+         */
+        public void invalidate() {
+            requests.increment();
+            DataAccess.runOnFxThread(() -> {
+                dirty = true;
+                if (!flushPending) {
+                    flushPending = true;
+                    Platform.runLater(RefreshScheduler::flush);
+                }
+            });
+        }
+
+        /**
+         * Drops a pending request, for when the work it would do has been done or made pointless some other way. Call
+         * it on the JavaFX thread.
+         */
+        public void cancel() {
+            dirty = false;
+        }
+
+        /**
+         * Returns the task's counters.
+         * @return The statistics.
+         */
+        public Stats stats() {
+            return new Stats(name, requests.sum(), runs.sum());
+        }
+    }
+
+    /**
+     * Registers a refresh. Tasks registered earlier run first in a flush, so register anything others depend on first.
+     * @param name Name to log the task's statistics under.
+     * @param refresh The refresh. Runs on the JavaFX thread, so it should start any loads in the background.
+     * @return The task, to invalidate when the refresh is needed.
+     */
+    public static Task register(String name, Runnable refresh) {
+        Task task = new Task(name, refresh);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * Returns how many flushes have run.
+     * @return The number of flushes.
+     */
+    public static long flushes() {
+        return flushes.sum();
+    }
+
+    /**
+     * Returns the counters of every registered task.
+     * @return The statistics, in registration order.
+     */
+    public static List<Stats> allStats() {
+        return tasks.stream().map(Task::stats).toList();
+    }
+
+    /**
+     * Runs every dirty task once.
+     */
+    private static void flush() {
+        flushPending = false;
+        flushes.increment();
+        for (Task task : tasks) {
+            if (!task.dirty)
+                continue;
+            task.dirty = false;
+            task.runs.increment();
+            try {
+                task.refresh.run();
+            } catch (RuntimeException e) {
+                System.out.println("Refresh failed: " + task.name);
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package scheduler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Least recently used cache of prepared statements for a single pooled connection.</p>
+ * <p>Statements are keyed by their SQL text, result set type, and whether they return generated keys, and are closed
+ * when they fall out of the cache or the connection is closed. A connection is only ever used by one thread at a time,
+ * so the cache itself is not synchronized; the hit/miss counters are shared by every connection.</p>
+ */
+public class StatementCache {
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    private record Key(String sql, int resultSetType, boolean generatedKeys) { }
+
+    private final Connection connection;
+    private final LinkedHashMap<Key, PreparedStatement> statements;
+
+    /**
+     * Snapshot of the statement cache counters, combined across every connection.
+     * @param hits Number of times a cached statement was reused.
+     * @param misses Number of times a statement had to be prepared.
+     * @param evictions Number of statements closed to make room for others.
+     */
+    public record Stats(long hits, long misses, long evictions) {
+        /**
+         * Returns the fraction of lookups that reused a cached statement.
+         * @return The hit rate between 0 and 1.
+         */
+        public double hitRate() {
+            long total = hits + misses;
+            return total==0?0:(double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%", hits, misses, evictions, hitRate()*100);
+        }
+    }
+
+    /**
+     * Creates an empty cache for the connection.
+     * @param connection The connection statements are prepared on.
+     * @param maxSize The most statements to keep open at once.
+     */
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if(size() <= maxSize)
+                    return false;
+                evictions.increment();
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * <p>Returns a prepared statement for the SQL, reusing a cached one if possible.</p>
+     * <p>The statement's parameters and batch are cleared before it is returned. Do not close it; it stays open in the
+     * cache.</p>
+     * @param sql The SQL statement/query.
+     * @param resultSetType The {@link ResultSet} type, such as {@link ResultSet#TYPE_FORWARD_ONLY}.
+     * @return The statement.
+     * @throws SQLException Thrown if the statement could not be prepared.
+     */
+    public PreparedStatement prepare(String sql, int resultSetType) throws SQLException {
+        return prepare(new Key(sql, resultSetType, false));
+    }
+
+    /**
+     * <p>Returns a forward only prepared statement that returns the keys generated by inserts.</p>
+     * <p>The statement's parameters and batch are cleared before it is returned. Do not close it.</p>
+     * @param sql The SQL statement.
+     * @return The statement.
+     * @throws SQLException Thrown if the statement could not be prepared.
+     */
+    public PreparedStatement prepareWithKeys(String sql) throws SQLException {
+        return prepare(new Key(sql, ResultSet.TYPE_FORWARD_ONLY, true));
+    }
+
+    private PreparedStatement prepare(Key key) throws SQLException {
+        PreparedStatement statement = statements.get(key);
+        if(statement != null && !statement.isClosed()) {
+            hits.increment();
+            statement.clearParameters();
+            statement.clearBatch();
+            return statement;
+        }
+        misses.increment();
+        statement = key.generatedKeys?
+                connection.prepareStatement(key.sql, Statement.RETURN_GENERATED_KEYS):
+                connection.prepareStatement(key.sql, key.resultSetType, ResultSet.CONCUR_READ_ONLY);
+        statements.put(key, statement);
+        return statement;
+    }
+
+    /**
+     * Closes every cached statement.
+     */
+    public void close() {
+        statements.values().forEach(StatementCache::closeQuietly);
+        statements.clear();
+    }
+
+    /**
+     * Returns the combined counters of every statement cache.
+     * @return The statistics.
+     */
+    public static Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {}
+    }
+}
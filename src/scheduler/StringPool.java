@@ -0,0 +1,91 @@
+package scheduler;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Shares one copy of strings that repeat across many rows, such as appointment types, locations, and user names.</p>
+ * <p>The pool is a fixed size table with one string per slot, picked by the string's hash. When a string matches the
+ * one in its slot, the pooled copy is returned and the new one can be collected; otherwise the new string takes over
+ * the slot. Frequent values therefore stay pooled and rare ones get pushed out, and the pool never grows. Lookups never
+ * lock. Unlike {@link String#intern()}, nothing is kept alive once it falls out of the table.</p>
+ * <p>The size can be changed with the <code>scheduler.stringPool.size</code> system property, and is rounded up to a
+ * power of 2.</p>
+ */
+public final class StringPool {
+    private StringPool() {}
+
+    private static final int size = Integer.highestOneBit(Math.max(16,
+            Integer.getInteger("scheduler.stringPool.size", 4096) - 1) << 1);
+    private static final AtomicReferenceArray<String> table = new AtomicReferenceArray<>(size);
+
+    private static final LongAdder lookups = new LongAdder();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Snapshot of the pool's counters.
+     * @param lookups Strings passed to {@link #dedup(String)}.
+     * @param hits Strings replaced with the pooled copy.
+     * @param bytesSaved Estimated heap saved by the replaced strings, assuming compressed pointers.
+     */
+    public record Stats(long lookups, long hits, long bytesSaved) {
+        /**
+         * Returns the fraction of lookups that found a pooled copy.
+         * @return The hit rate between 0 and 1.
+         */
+        public double hitRate() {
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lookups=%d, hits=%d, hitRate=%.1f%%, saved=%.1fKB", lookups, hits, hitRate() * 100,
+                    bytesSaved / 1024d);
+        }
+    }
+
+    /**
+     * Returns the pooled copy of a string, pooling this one if there isn't one.
+     * @param s The string, usually just read from a result set.
+     * @return An equal string, shared with other callers where possible. Null if the string was null.
+     */
+    public static String dedup(String s) {
+        if (s == null)
+            return null;
+        lookups.increment();
+        int h = s.hashCode();
+        int slot = (h ^ (h >>> 16)) & (size - 1);
+        String pooled = table.get(slot);
+        if (s.equals(pooled)) {
+            hits.increment();
+            bytesSaved.add(footprint(s));
+            return pooled;
+        }
+        table.set(slot, s);
+        return s;
+    }
+
+    /**
+     * Returns the pool's counters.
+     * @return The statistics.
+     */
+    public static Stats stats() {
+        return new Stats(lookups.sum(), hits.sum(), bytesSaved.sum());
+    }
+
+    /**
+     * Estimates the heap used by a string: the String object, plus its backing array of one byte per character for
+     * Latin-1 text or two otherwise, each rounded up to 8 bytes.
+     * @param s The string.
+     * @return The estimate in bytes.
+     */
+    private static long footprint(String s) {
+        int length = s.length();
+        boolean latin1 = true;
+        for (int i = 0; i < length && latin1; i++)
+            latin1 = s.charAt(i) <= 0xFF;
+        long array = 16 + (long) length * (latin1 ? 1 : 2);
+        return 24 + ((array + 7) & ~7L);
+    }
+}
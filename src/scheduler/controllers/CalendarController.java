@@ -3,6 +3,8 @@ package scheduler.controllers;
 import javafx.beans.property.SimpleIntegerProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -11,8 +13,11 @@ import javafx.scene.text.Text;
 import scheduler.*;
 import scheduler.elements.*;
 import scheduler.records.Appointment;
+import scheduler.records.CompactAppointment;
 import scheduler.records.Contact;
 import scheduler.records.Customer;
+import scheduler.records.DeltaSync;
+import scheduler.records.MonthCache;
 import scheduler.records.User;
 
 import java.time.ZonedDateTime;
@@ -20,6 +25,10 @@ import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoField;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * <p>The controller for the Calendar Scene.</p>
@@ -78,6 +87,34 @@ public class CalendarController implements User.UserListener {
      */
     private boolean isUpdating=false;
 
+    /**
+     * The weeks and appointments shown by the Calendar View. Null until the calendar is first shown.
+     */
+    private CalendarMonth month;
+
+    /**
+     * The List View's filter over {@link #month}, the sorted list shown by the table, and the range the filter is set
+     * to. Rebuilt when the month is.
+     */
+    private CalendarMonth listedMonth;
+    private FilteredList<Appointment> listed;
+    private SortedList<Appointment> listedSorted;
+    private ZonedDateTime listedStart, listedEnd;
+
+    /**
+     * Tracks the latest calendar load, so a slow load can't overwrite a newer one.
+     */
+    private final DataAccess.Generation monthGeneration = new DataAccess.Generation();
+
+    /**
+     * Refreshes requested through {@link #refresh_appointments()}, {@link #sync_appointments()},
+     * {@link #refresh_views()}, and {@link #refresh_references()}, run at most once per flush and in this order.
+     */
+    private final RefreshScheduler.Task monthRefresh = RefreshScheduler.register("calendar month", this::loadMonth),
+            syncRefresh = RefreshScheduler.register("calendar sync", this::syncMonth),
+            listRefresh = RefreshScheduler.register("list view", this::showList),
+            referencesRefresh = RefreshScheduler.register("calendar references", this::redrawReferences);
+
     /**
      * Empty constructor.
      */
@@ -203,7 +240,7 @@ public class CalendarController implements User.UserListener {
             EditAppointmentController.INSTANCE.setAppointment(null);
             EditAppointmentController.INSTANCE.setDate(selectedDay.get());
             EditAppointmentController.INSTANCE.setFrom(Main.calender_scene,appointment -> {
-                refresh_appointments();
+                sync_appointments();
                 if(appointment!=null)
                     setSelectedAppointment(appointment);
             });
@@ -213,7 +250,7 @@ public class CalendarController implements User.UserListener {
             if(selectedAppointment.get()!=null) {
                 EditAppointmentController.INSTANCE.setAppointment(selectedAppointment.get());
                 EditAppointmentController.INSTANCE.setFrom(Main.calender_scene,appointment -> {
-                    refresh_appointments();
+                    sync_appointments();
                     if(appointment!=null)
                         setSelectedAppointment(appointment);
                 });
@@ -237,28 +274,16 @@ public class CalendarController implements User.UserListener {
 
         selectedAppointment.addListener(event ->{
             if(selectedAppointment.get()!=null) {
-                DateTimeFormatter dtf = DateTimeFormatter.ofPattern("hh:mm a");
-                DateTimeFormatter dtf2 = DateTimeFormatter.ofPattern("(MM/dd/yyyy)");
-                l_appointments.setText(DefaultLocale.translate("appointment_details")+
-                        "\n\n"+DefaultLocale.translate("id")+": "+selectedAppointment.get().appointmentID()+
-                        "\n" +selectedAppointment.get().title() + " - " + selectedAppointment.get().type() + " " + selectedAppointment.get().start().format(dtf2) +
-                        "\n(" +selectedAppointment.get().start().format(dtf) + " - " + selectedAppointment.get().end().format(dtf) + ")\n" +
-
-                        "\n" + DefaultLocale.translate("location") + ": " + selectedAppointment.get().location() +
-                        "\n" + DefaultLocale.translate("user") + ": " + selectedAppointment.get().user() +
-                        "\n" + DefaultLocale.translate("customer") + ": " + selectedAppointment.get().customer() +
-                        "\n" + DefaultLocale.translate("contact") + ": " + selectedAppointment.get().contact() +
-                        "\n\n" + DefaultLocale.translate("description") + ": " + selectedAppointment.get().description()
-                );
-                if (selectedAppointment.get().start().getDayOfYear() != selectedDay.get().getDayOfYear())
+                showDetails();
+                if (CalendarMonth.epochDay(selectedAppointment.get().start()) != CalendarMonth.epochDay(selectedDay.get()))
                     setDay(selectedAppointment.get().start());
                 else {
-                    refresh_views();
+                    listRefresh.invalidate();
                 }
             }
             else {
                 l_appointments.setText("");
-                refresh_views();
+                listRefresh.invalidate();
             }
 
             isUpdating=true;
@@ -319,7 +344,7 @@ public class CalendarController implements User.UserListener {
 
         rb_week.setOnAction(event -> {
             l_month_or_week.setText(DefaultLocale.translate(rb_week.isSelected()?"week":"month"));
-            refresh_appointments();
+            listRefresh.invalidate();
             l_list_date.textProperty().bind(rb_week.isSelected()?l_sunday_date.textProperty():l_month_year.textProperty());
         });
         rb_month.setOnAction(rb_week.getOnAction());
@@ -341,22 +366,8 @@ public class CalendarController implements User.UserListener {
      */
     public void addAppointment(Appointment appointment){
         if(appointment==null)return;
-        for(CalendarWeek week:tv_calendar_view.getItems()){
-            //Shift java's mon-sun week schedule to a sun-sat schedule
-            //+1 days -> 7th day of the week -> -1 week
-            if(appointment.start().plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1).getDayOfYear() == week.getSunday().date().getDayOfYear()){
-                switch (appointment.start().getDayOfWeek()) {
-                    case SUNDAY -> week.getSunday().appointments().add(appointment);
-                    case MONDAY -> week.getMonday().appointments().add(appointment);
-                    case TUESDAY -> week.getTuesday().appointments().add(appointment);
-                    case WEDNESDAY -> week.getWednesday().appointments().add(appointment);
-                    case THURSDAY -> week.getThursday().appointments().add(appointment);
-                    case FRIDAY -> week.getFriday().appointments().add(appointment);
-                    case SATURDAY -> week.getSaturday().appointments().add(appointment);
-                }
-                break;
-            }
-        }
+        if(month!=null)
+            month.add(appointment);
         refresh_views();
     }
 
@@ -366,58 +377,23 @@ public class CalendarController implements User.UserListener {
      * @param original The appointment to be removed.
      */
     public void removeAppointment(Appointment original){
-        if(selectedAppointment.get().equals(original)){
+        if(original.equals(selectedAppointment.get())){
             selectedAppointment.set(null);
         }
-        for(CalendarWeek week:tv_calendar_view.getItems()){
-            //Shift java's mon-sun week schedule to a sun-sat schedule
-            //+1 days -> 7th day of the week -> -1 week
-            if (original.start().plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1).getDayOfYear() == week.getSunday().date().getDayOfYear()) {
-                week.getSunday().appointments().remove(original);
-                week.getMonday().appointments().remove(original);
-                week.getTuesday().appointments().remove(original);
-                week.getWednesday().appointments().remove(original);
-                week.getThursday().appointments().remove(original);
-                week.getFriday().appointments().remove(original);
-                week.getSaturday().appointments().remove(original);
-                break;
-            }
-        }
+        if(month!=null)
+            month.remove(original.appointmentID());
         refresh_views();
     }
 
     /**
      * <p>Replaces one appointment with another.</p>
-     * <p>Works for both Calendar and Week Views. Operates in one sweep.</p>
+     * <p>Works for both Calendar and Week Views. The replacement is moved to the day it now starts on.</p>
      * @param original The appointment to replace
      * @param replacement The new appointment
      */
     public void updateAppointment(Appointment original, Appointment replacement){
-        boolean found1=false, found2=false;
-        for(CalendarWeek week:tv_calendar_view.getItems()){
-            if (original.start().plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1).getDayOfYear() == week.getSunday().date().getDayOfYear()) {
-                week.getSunday().appointments().remove(original);
-                week.getMonday().appointments().remove(original);
-                week.getTuesday().appointments().remove(original);
-                week.getWednesday().appointments().remove(original);
-                week.getThursday().appointments().remove(original);
-                week.getFriday().appointments().remove(original);
-                week.getSaturday().appointments().remove(original);
-                found1=true;
-            }
-            if(replacement.start().plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1).getDayOfYear() == week.getSunday().date().getDayOfYear()){
-                switch (replacement.start().getDayOfWeek()) {
-                    case SUNDAY -> week.getSunday().appointments().add(replacement);
-                    case MONDAY -> week.getMonday().appointments().add(replacement);
-                    case TUESDAY -> week.getTuesday().appointments().add(replacement);
-                    case WEDNESDAY -> week.getWednesday().appointments().add(replacement);
-                    case THURSDAY -> week.getThursday().appointments().add(replacement);
-                    case FRIDAY -> week.getFriday().appointments().add(replacement);
-                    case SATURDAY -> week.getSaturday().appointments().add(replacement);
-                }
-                found2=true;
-            }
-            if(found1&&found2)break;
+        if(month!=null) {
+            month.update(new int[]{original.appointmentID()}, List.of(replacement));
         }
         refresh_views();
     }
@@ -425,86 +401,245 @@ public class CalendarController implements User.UserListener {
     /**
      * <p>Refreshes the Views with fresh copies from the database.</p>
      * <p>Used primarily when first logged in. Also used if the current user is admin, and they cycle through different users.</p>
+     * <p>Months seen recently, or loaded ahead of time, are filled from the {@link MonthCache} and then synced.
+     * Otherwise the appointments are loaded from the database. Either way they are sorted into days in the background,
+     * and each day is filled in one change once they arrive. The months around the selected day are then loaded ahead
+     * of time.</p>
+     * <p>Requests made while handling the same event are run once, see {@link RefreshScheduler}.</p>
      */
     public void refresh_appointments() {
+        monthRefresh.invalidate();
+    }
+
+    /**
+     * Fills the calendar, from the {@link MonthCache} or the database. Run by {@link #refresh_appointments()}.
+     */
+    private void loadMonth() {
+        //Loading the month also brings it up to date.
+        syncRefresh.cancel();
         //Calendar and Week View Updates
-        if (!tv_calendar_view.getItems().isEmpty()) {
-            for (CalendarWeek week : tv_calendar_view.getItems()) {
-                week.getSunday().appointments().clear();
-                week.getMonday().appointments().clear();
-                week.getTuesday().appointments().clear();
-                week.getWednesday().appointments().clear();
-                week.getThursday().appointments().clear();
-                week.getFriday().appointments().clear();
-                week.getSaturday().appointments().clear();
-            }
+        if (month != null) {
             if (User.current != null) {
-                ZonedDateTime first = selectedDay.get().with(ChronoField.DAY_OF_MONTH, 2)
-                        .with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1)
-                        .with(ChronoField.SECOND_OF_DAY, 0).truncatedTo(ChronoUnit.DAYS);
-                ZonedDateTime last = selectedDay.get().with(ChronoField.DAY_OF_MONTH, 2).plusMonths(1)
-                        .with(ChronoField.DAY_OF_WEEK, 7).truncatedTo(ChronoUnit.DAYS);
-                ArrayList<Appointment> appointments = Appointment.getAppointments(SideMenuController.INSTANCE.getCurrentUser(), first, last);
-                if (appointments != null) {
-                    int i = 0;
-                    boolean found;
-                    for (Appointment appointment : appointments) {
-                        found = false;
-                        while (!found) {
-                            if (i >= tv_calendar_view.getItems().size())
-                                break;
-                            CalendarWeek week = tv_calendar_view.getItems().get(i);
-                            if (appointment.start().plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1)
-                                    .getDayOfYear() == week.getSunday().date().getDayOfYear()) {
-                                found = true;
-                                switch (appointment.start().getDayOfWeek()) {
-                                    case SUNDAY -> week.getSunday().appointments().add(appointment);
-                                    case MONDAY -> week.getMonday().appointments().add(appointment);
-                                    case TUESDAY -> week.getTuesday().appointments().add(appointment);
-                                    case WEDNESDAY -> week.getWednesday().appointments().add(appointment);
-                                    case THURSDAY -> week.getThursday().appointments().add(appointment);
-                                    case FRIDAY -> week.getFriday().appointments().add(appointment);
-                                    case SATURDAY -> week.getSaturday().appointments().add(appointment);
-                                }
-                            } else i++;
-                        }
-                        if (i >= tv_calendar_view.getItems().size())
-                            break;
-
+                ZonedDateTime first = month.start(), last = month.end();
+                long firstDay = month.firstDay();
+                int dayCount = month.dayCount();
+                User user = viewedUser();
+                DataAccess.load(monthGeneration, () -> {
+                    List<CompactAppointment> appointments = MonthCache.getIfLoaded(user, first, last);
+                    boolean cached = appointments != null;
+                    if (!cached) {
+                        //Start tracking changes before loading, so sync_appointments() can't miss any made in between.
+                        Appointment.sync();
+                        appointments = MonthCache.get(user, first, last);
                     }
-                }
+                    return new MonthLoad(layout(firstDay, dayCount, appointments), cached);
+                }, load -> {
+                    month.setAll(load.layout());
+                    refresh_views();
+                    //Pick up anything changed elsewhere since a cached month was loaded.
+                    if (load.cached())
+                        sync_appointments();
+                    prefetchAdjacent(user);
+                });
+                return;
             }
+            monthGeneration.next(); //Drop any load still in flight.
+            month.clear();
         }
 
         refresh_views();
     }
 
+    /**
+     * <p>Brings the Calendar and Week Views up to date with the appointments changed since the last sync.</p>
+     * <p>Only the added, changed, and deleted appointments are fetched, instead of reloading the whole month. Falls
+     * back to {@link #refresh_appointments()} if the changes couldn't be read.</p>
+     * <p>Requests made while handling the same event are run once, see {@link RefreshScheduler}.</p>
+     */
+    public void sync_appointments() {
+        syncRefresh.invalidate();
+    }
+
+    /**
+     * Reads and applies the changes. Run by {@link #sync_appointments()}.
+     */
+    private void syncMonth() {
+        if (month == null || User.current == null) {
+            refresh_appointments();
+            return;
+        }
+        DataAccess.load(Appointment::sync, delta -> {
+            if (delta == null) {
+                //The cached months can't be brought up to date either.
+                MonthCache.clear();
+                refresh_appointments();
+            } else
+                applyDelta(delta);
+        });
+    }
+
+    /**
+     * <p>Removes changed and deleted appointments from the days they were on, and adds the changed ones back on the days
+     * they now fall on, if they still belong in the loaded month and to the viewed user.</p>
+     * <p>Also used by other views that call {@link Appointment#sync()} themselves, since each change is only returned
+     * by one sync.</p>
+     * @param delta The changes.
+     */
+    public void applyDelta(DeltaSync.Delta<Appointment> delta) {
+        if (month != null && !delta.isEmpty()) {
+            //Every changed appointment is taken off its old day, and only those still for the viewed user put back.
+            int[] removed = Arrays.copyOf(delta.deleted(), delta.deleted().length + delta.changed().size());
+            ArrayList<Appointment> added = new ArrayList<>(delta.changed().size());
+            User user = SideMenuController.INSTANCE.getCurrentUser();
+            int n = delta.deleted().length;
+            for (Appointment appointment : delta.changed()) {
+                removed[n++] = appointment.appointmentID();
+                if (user != null && (user == User.ALL || user.id() == appointment.userID()))
+                    added.add(appointment);
+            }
+            month.update(removed, added);
+
+            Appointment selected = selectedAppointment.get();
+            if (selected != null) {
+                IntObjectMap<Appointment> changed = new IntObjectMap<>(delta.changed().size());
+                for (Appointment appointment : delta.changed())
+                    changed.put(appointment.appointmentID(), appointment);
+                if (changed.containsKey(selected.appointmentID()))
+                    selectedAppointment.set(changed.get(selected.appointmentID()));
+                else if (Arrays.stream(delta.deleted()).anyMatch(id -> id == selected.appointmentID()))
+                    selectedAppointment.set(null);
+            }
+        }
+        refresh_views();
+    }
+
+    /**
+     * A month's appointments sorted into its days, and whether they came from the {@link MonthCache}.
+     */
+    private record MonthLoad(CalendarMonth.Layout layout, boolean cached) { }
+
+    /**
+     * Builds the full appointments and sorts them into the days of a month. Safe to call off the JavaFX thread.
+     * @param firstDay The month's first day.
+     * @param dayCount The month's number of days.
+     * @param appointments The month's appointments, in start order. Null leaves the month empty.
+     * @return The layout to apply to the month.
+     */
+    private static CalendarMonth.Layout layout(long firstDay, int dayCount, List<CompactAppointment> appointments) {
+        ArrayList<Appointment> full = new ArrayList<>(appointments == null ? 0 : appointments.size());
+        if (appointments != null) {
+            for (CompactAppointment appointment : appointments)
+                full.add(appointment.toAppointment());
+        }
+        return new CalendarMonth.Layout(firstDay, dayCount, full);
+    }
+
+    /**
+     * Loads the months before and after the selected day, and those of the weeks before and after it, in the
+     * background, so moving to them doesn't wait on the database.
+     * @param user The viewed user.
+     */
+    private void prefetchAdjacent(User user) {
+        ZonedDateTime day = selectedDay.get();
+        for (ZonedDateTime next : List.of(day.minusMonths(1), day.plusMonths(1), day.minusWeeks(1), day.plusWeeks(1))) {
+            ZonedDateTime first = CalendarMonth.start(next);
+            if (CalendarMonth.epochDay(first) != month.firstDay())
+                MonthCache.prefetch(user, first, CalendarMonth.end(next));
+        }
+    }
+
+    /**
+     * Returns whose appointments the calendar shows.
+     * @return The user picked in the side menu, or {@link User#ALL} if there isn't one.
+     */
+    private User viewedUser() {
+        User user = SideMenuController.INSTANCE.getCurrentUser();
+        return user == null ? User.ALL : user;
+    }
+
     /**
      * <p>Causes graphical updates in the side menu and updates the List View with the latest set of appointments.</p>
-     * <p>Called whenever one of the appointments is changed, or when refresh_appointments() is called.</p>
+     * <p>Called whenever one of the appointments is changed, or when refresh_appointments() is called. The List View
+     * is a filtered view of the loaded month, so nothing is queried for it. Requests made while handling the same
+     * event are run once, see {@link RefreshScheduler}.</p>
      */
     public void refresh_views(){
         if(SideMenuController.INSTANCE.getCurrentUser()==null)
             return;
 
         SideMenuController.refreshAppointments();
-        //List view updates
-        isUpdating = true;
+        listRefresh.invalidate();
+    }
+
+    /**
+     * <p>Redraws the customers, users, and contacts shown for the appointments, for when ones that weren't cached when
+     * the appointments were drawn have been loaded.</p>
+     * <p>Requests made while handling the same event are run once, see {@link RefreshScheduler}.</p>
+     */
+    public void refresh_references() {
+        referencesRefresh.invalidate();
+    }
+
+    /**
+     * Redraws the Week and List Views and the selected appointment's details. Run by {@link #refresh_references()}.
+     */
+    private void redrawReferences() {
+        tv_week_view.refresh();
+        tv_list_view.refresh();
+        if (selectedAppointment.get() != null)
+            showDetails();
+    }
 
-        ZonedDateTime start, end;
-        if (rb_week.isSelected()) {
-            start = selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1).truncatedTo(ChronoUnit.DAYS);
-            end = start.plusWeeks(1);
-        } else {
-            start = selectedDay.get().with(ChronoField.DAY_OF_MONTH, 1).truncatedTo(ChronoUnit.DAYS);
-            end = start.plusMonths(1);
+    /**
+     * Shows the selected appointment's details.
+     */
+    private void showDetails() {
+        Appointment appointment = selectedAppointment.get();
+        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("hh:mm a");
+        DateTimeFormatter dtf2 = DateTimeFormatter.ofPattern("(MM/dd/yyyy)");
+        l_appointments.setText(DefaultLocale.translate("appointment_details")+
+                "\n\n"+DefaultLocale.translate("id")+": "+appointment.appointmentID()+
+                "\n" +appointment.title() + " - " + appointment.type() + " " + appointment.start().format(dtf2) +
+                "\n(" +appointment.start().format(dtf) + " - " + appointment.end().format(dtf) + ")\n" +
+
+                "\n" + DefaultLocale.translate("location") + ": " + appointment.location() +
+                "\n" + DefaultLocale.translate("user") + ": " + appointment.user() +
+                "\n" + DefaultLocale.translate("customer") + ": " + appointment.customer() +
+                "\n" + DefaultLocale.translate("contact") + ": " + appointment.contact() +
+                "\n\n" + DefaultLocale.translate("description") + ": " + appointment.description()
+        );
+    }
+
+    /**
+     * <p>Points the List View at the selected week or month of the loaded month, keeping the selected appointment
+     * selected.</p>
+     * <p>The list filters and sorts the month's appointments as they change, so it only has to be rebuilt when the
+     * month is, and refiltered when the selected range moves.</p>
+     */
+    private void showList() {
+        if (month == null)
+            return;
+        isUpdating = true;
+        if (listedMonth != month) {
+            if (listedSorted != null)
+                listedSorted.comparatorProperty().unbind();
+            listedMonth = month;
+            listed = new FilteredList<>(month.appointments(), appointment -> false);
+            //Start order when no column is sorted, otherwise the table's order.
+            listedSorted = new SortedList<>(new SortedList<>(listed, Comparator.comparing(Appointment::start)));
+            listedSorted.comparatorProperty().bind(tv_list_view.comparatorProperty());
+            tv_list_view.setItems(listedSorted);
+            listedStart = null;
+        }
+        ZonedDateTime start = listStart(), end = listEnd(start);
+        if (!start.equals(listedStart) || !end.equals(listedEnd)) {
+            listedStart = start;
+            listedEnd = end;
+            //Ends on or after the start, and starts on or before the end.
+            listed.setPredicate(appointment -> !appointment.end().isBefore(start) && !appointment.start().isAfter(end));
         }
-        Appointment a = tv_list_view.getSelectionModel().getSelectedItem();
-        ArrayList<Appointment> list = Appointment.getAppointments(SideMenuController.INSTANCE.getCurrentUser(), start, end);
-        tv_list_view.getItems().clear();
-        if (list != null)
-            tv_list_view.getItems().addAll(list);
 
+        Appointment a = selectedAppointment.get();
         if (a != null && tv_list_view.getItems().contains(a))
             tv_list_view.getSelectionModel().select(a);
         else
@@ -529,6 +664,25 @@ public class CalendarController implements User.UserListener {
         isUpdating = false;
     }
 
+    /**
+     * Returns the start of the List View's range, either the selected week or month.
+     * @return The start of the range.
+     */
+    private ZonedDateTime listStart() {
+        if (rb_week.isSelected())
+            return selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1).truncatedTo(ChronoUnit.DAYS);
+        return selectedDay.get().with(ChronoField.DAY_OF_MONTH, 1).truncatedTo(ChronoUnit.DAYS);
+    }
+
+    /**
+     * Returns the end of the List View's range.
+     * @param start The start of the range, from {@link #listStart()}.
+     * @return The end of the range.
+     */
+    private ZonedDateTime listEnd(ZonedDateTime start) {
+        return rb_week.isSelected() ? start.plusWeeks(1) : start.plusMonths(1);
+    }
+
     ////////////////
     //    Sets    //
     ////////////////
@@ -575,6 +729,17 @@ public class CalendarController implements User.UserListener {
      * the range for the loaded month.</p>
      */
     public void onDayChange() {
+        if(showSelectedDay())
+            refresh_appointments();
+        else
+            refresh_views();
+    }
+
+    /**
+     * Updates the displayed text for the selected day, and rebuilds the calendar if the day is outside the loaded month.
+     * @return True if the calendar was rebuilt and needs its appointments loaded.
+     */
+    private boolean showSelectedDay() {
         DateTimeFormatter dtf = DateTimeFormatter.ofPattern("MM/dd/yyyy");
         l_sunday_date.setText(selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK,7).plusWeeks(-1).format(dtf) +
                 " - " + selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK,6).format(dtf));
@@ -582,39 +747,17 @@ public class CalendarController implements User.UserListener {
                 +", "+selectedDay.get().getYear());
 
         //If the calendar is not initialized, or is out of range, initialize the calendar
-        if(tv_calendar_view.getItems().isEmpty()||
-                tv_calendar_view.getItems().get(0).getSunday().date().getDayOfYear()!=
-                        selectedDay.get().with(ChronoField.DAY_OF_MONTH,1).plusDays(1).with(ChronoField.DAY_OF_WEEK,7)
-                                .minusWeeks(1).getDayOfYear()) {
-            tv_calendar_view.getItems().clear();
-            tv_week_view.getItems().clear();
-            ZonedDateTime first = selectedDay.get().with(ChronoField.DAY_OF_MONTH,1).plusDays(1)
-                    .with(ChronoField.DAY_OF_WEEK,7).minusWeeks(1).with(ChronoField.SECOND_OF_DAY,0);
-            int wrongMonth = selectedDay.get().getMonthValue()+1;
-            wrongMonth=wrongMonth>12?1:wrongMonth;
-            do
-            {
-                CalendarWeek week = new CalendarWeek(first);
-                tv_calendar_view.getItems().add(week);
-                if(week.getSunday().date().getDayOfYear()==selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK,7).minusWeeks(1).getDayOfYear())
-                    tv_week_view.getItems().add(week);
-                first=first.plusWeeks(1);
-            }
-            while(first.getMonthValue()!=wrongMonth);
-            refresh_appointments();
+        if(month==null||month.firstDay()!=CalendarMonth.epochDay(CalendarMonth.start(selectedDay.get()))) {
+            month = new CalendarMonth(selectedDay.get());
+            tv_calendar_view.getItems().setAll(month.weeks());
+            tv_week_view.getItems().setAll(month.weekOf(selectedDay.get()));
+            return true;
         }
         else {
-            if(tv_week_view.getItems().get(0).getSunday().date().getDayOfYear()!=
-                selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK,7).minusWeeks(1).getDayOfYear()) {
-                tv_week_view.getItems().clear();
-                for (CalendarWeek week : tv_calendar_view.getItems()) {
-                    if (week.getSunday().date().getDayOfYear() == selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK,
-                            7).minusWeeks(1).getDayOfYear()) {
-                        tv_week_view.getItems().add(week);
-                    }
-                }
-            }
-            refresh_views();
+            CalendarWeek week = month.weekOf(selectedDay.get());
+            if(tv_week_view.getItems().isEmpty()||tv_week_view.getItems().get(0)!=week)
+                tv_week_view.getItems().setAll(week);
+            return false;
         }
     }
 
@@ -624,7 +767,44 @@ public class CalendarController implements User.UserListener {
      */
     @Override
     public void onUserChange() {
-        onDayChange();
-        refresh_appointments();
+        DataAccess.load(loadUserChange(), Runnable::run);
+    }
+
+    /**
+     * <p>Loads the calendar for a new user alongside the other listeners.</p>
+     * <p>The month is loaded once, and the List View is filtered from it.</p>
+     * @return The load, returning the action that fills the Views.
+     */
+    @Override
+    public Supplier<Runnable> loadUserChange() {
+        showSelectedDay();
+        User user = SideMenuController.INSTANCE.getCurrentUser();
+        if (User.current == null || user == null || month == null)
+            return () -> this::refresh_appointments;
+
+        int generation = monthGeneration.next();
+        ZonedDateTime first = month.start(), last = month.end();
+        long firstDay = month.firstDay();
+        int dayCount = month.dayCount();
+        return () -> {
+            //Same sequence as loadMonth(), so nothing changed between the load and the next sync is missed.
+            List<CompactAppointment> appointments = MonthCache.getIfLoaded(user, first, last);
+            boolean cached = appointments != null;
+            if (!cached) {
+                Appointment.sync();
+                appointments = MonthCache.get(user, first, last);
+            }
+            MonthLoad load = new MonthLoad(layout(firstDay, dayCount, appointments), cached);
+            return () -> {
+                if (monthGeneration.isCurrent(generation)) {
+                    month.setAll(load.layout());
+                    showList();
+                    //Pick up anything changed elsewhere since a cached month was loaded.
+                    if (load.cached())
+                        sync_appointments();
+                    prefetchAdjacent(user);
+                }
+            };
+        };
     }
 }
@@ -7,13 +7,17 @@ import scheduler.*;
 import scheduler.elements.AlertBox;
 import scheduler.interfaces.BackTracker;
 import scheduler.records.Appointment;
+import scheduler.records.AppointmentIndex;
 import scheduler.records.Contact;
 import scheduler.records.Customer;
+import scheduler.records.DeltaSync;
 import scheduler.records.User;
 
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
 
 /**
  * <p>Controller for the Edit/New Appointment Scene.</p>
@@ -52,6 +56,20 @@ public class EditAppointmentController extends BackTracker<Appointment> implemen
     // Used to prevent clock onActions from firing inappropriately.
     private static boolean isSetting = false;
 
+    /**
+     * Result of the background collision check and save. Holds either the saved appointment, or the appointments it
+     * collided with, along with the changes the check synced from the database.
+     */
+    private record SaveResult(Appointment saved, List<AppointmentIndex.Collision> collisions,
+                              DeltaSync.Delta<Appointment> synced) { }
+
+    /**
+     * Customers and contacts loaded for the choice boxes.
+     */
+    private record ChoiceLists(List<Customer> customers, List<Contact> contacts) { }
+
+    private final DataAccess.Generation choiceGeneration = new DataAccess.Generation();
+
     /**
      * Default Constructor.
      */
@@ -219,25 +237,53 @@ public class EditAppointmentController extends BackTracker<Appointment> implemen
                 hour+=12;
             ZonedDateTime end = start.withHour(hour).withMinute(Integer.parseInt(cb_end_minute.getValue()));
 
-            //Check if appointment collides with time for customer.
-
-            ArrayList<Appointment> currentAppointments = Appointment.getAppointments(cb_customer.getValue(),start,end);
-            if(currentAppointments!=null&&!currentAppointments.isEmpty()) {
-                ZonedDateTime minStart = null;
-                ZonedDateTime maxEnd = null;
-                for (Appointment appointment1 : currentAppointments) {
-                    if (!appointment1.equals(appointment)) {
-                        if (minStart == null || minStart.isAfter(appointment1.start()))
-                            minStart = appointment1.start();
-                        if (maxEnd == null || maxEnd.isBefore(appointment1.end()))
-                            maxEnd = appointment1.end();
-                    }
-                }
-                if (minStart != null) {
+            //Check if appointment collides with time for the customer, user, or contact, then save. Both run in the
+            //background, so everything they need is read from the fields first.
+            Appointment original = appointment;
+            Customer customer = cb_customer.getValue();
+            Contact contact = cb_contact.getValue();
+            String title = tf_title.getText(), description = ta_description.getText(),
+                    location = tf_location.getText(), type = tf_type.getText();
+            User selected = SideMenuController.INSTANCE.getCurrentUser();
+            User u = selected.equals(User.ALL) ? User.current : selected;
+            User owner = original == null || User.current.isAdmin() ? u : original.user();
+
+            b_ok.setDisable(true);
+            DataAccess.load(() -> {
+                //The index only knows other clients' bookings as of the last sync, so bring it up to date first.
+                DeltaSync.Delta<Appointment> synced = Appointment.sync();
+                List<AppointmentIndex.Collision> collisions = AppointmentIndex.collisions(customer.id(), owner.id(),
+                        contact.id(), start, end, original == null ? -1 : original.appointmentID());
+                if (!collisions.isEmpty())
+                    return new SaveResult(null, collisions, synced);
+
+                //Checking complete, move forward with save.
+                if (original == null)
+                    return new SaveResult(Appointment.createNew(title, description, location, type, start,
+                            end, customer, owner, contact), List.of(), synced);
+                return new SaveResult(original.update(original.appointmentID(), title, description, location, type,
+                        start, end, customer, owner, contact), List.of(), synced);
+            }, result -> {
+                //Each change is only returned by one sync, so the calendar gets the ones read here.
+                if (result.synced() != null)
+                    CalendarController.INSTANCE.applyDelta(result.synced());
+                if (!result.collisions().isEmpty()) {
                     DateTimeFormatter dtf = DateTimeFormatter.ofPattern("hh:mm a");
-                    errors.append(DefaultLocale.translate("time_collision")
-                            .replace("%1%", minStart.format(dtf))
-                            .replace("%2%", maxEnd.format(dtf)));
+                    for (AppointmentIndex.Collision collision : result.collisions()) {
+                        ArrayList<String> with = new ArrayList<>();
+                        if (collision.customer())
+                            with.add(DefaultLocale.translate("customer").toLowerCase());
+                        if (collision.user())
+                            with.add(DefaultLocale.translate("user").toLowerCase());
+                        if (collision.contact())
+                            with.add(DefaultLocale.translate("contact").toLowerCase());
+                        errors.append(DefaultLocale.translate("time_collision")
+                                .replace("%1%", Integer.toString(collision.appointment().appointmentID()))
+                                .replace("%2%", collision.appointment().title())
+                                .replace("%3%", collision.appointment().startTime().format(dtf))
+                                .replace("%4%", collision.appointment().endTime().format(dtf))
+                                .replace("%5%", String.join(", ", with))).append('\n');
+                    }
                     l_errors.setText(errors.toString());
                     cb_start_hour.setStyle("-fx-border-color: red; -fx-border-width: 1 1 1 1;");
                     cb_start_minute.setStyle("-fx-border-color: red; -fx-border-width: 1 1 1 1;");
@@ -245,38 +291,28 @@ public class EditAppointmentController extends BackTracker<Appointment> implemen
                     cb_end_hour.setStyle("-fx-border-color: red; -fx-border-width: 1 1 1 1;");
                     return;
                 }
-            }
-            cb_start_hour.setStyle("");
-            cb_start_minute.setStyle("");
-            cb_end_minute.setStyle("");
-            cb_end_hour.setStyle("");
-
-            //Checking complete, move forward with save.
-
-            User u = SideMenuController.INSTANCE.getCurrentUser();
-            if (u.equals(User.ALL))
-                u = User.current;
-
-            if (appointment == null) {
-                appointment = Appointment.createNew(tf_title.getText(), ta_description.getText(),
-                        tf_location.getText(), tf_type.getText(), start,
-                        end, cb_customer.getValue(), u, cb_contact.getValue());
-                if (appointment != null) {
-                    CalendarController.INSTANCE.addAppointment(appointment);
-                    goBack(appointment);
-                } else
-                    System.out.println("Unable to save appointment");
-            } else {
-                Appointment a = appointment.update(appointment.appointmentID(), tf_title.getText(), ta_description.getText(),
-                        tf_location.getText(), tf_type.getText(), start, end,
-                        cb_customer.getValue(), User.current.isAdmin()?u:appointment.user(), cb_contact.getValue());
-                if (a != null) {
-                    CalendarController.INSTANCE.updateAppointment(appointment, a);
-                    goBack(a);
+                cb_start_hour.setStyle("");
+                cb_start_minute.setStyle("");
+                cb_end_minute.setStyle("");
+                cb_end_hour.setStyle("");
+
+                Appointment a = result.saved();
+                if (original == null) {
+                    if (a != null) {
+                        appointment = a;
+                        CalendarController.INSTANCE.addAppointment(a);
+                        goBack(a);
+                    } else
+                        System.out.println("Unable to save appointment");
                 } else {
-                    System.out.println("Unable to save update to appointment: " + appointment.appointmentID());
+                    if (a != null) {
+                        CalendarController.INSTANCE.updateAppointment(original, a);
+                        goBack(a);
+                    } else {
+                        System.out.println("Unable to save update to appointment: " + original.appointmentID());
+                    }
                 }
-            }
+            }).whenComplete((ignored, e) -> DataAccess.runOnFxThread(() -> b_ok.setDisable(false)));
         });
         b_cancel.setOnAction(actionEvent -> goBack(null));
         b_back.setOnAction(actionEvent -> goBack(null));
@@ -503,6 +539,8 @@ public class EditAppointmentController extends BackTracker<Appointment> implemen
                 }
                 isSetting = false;
 
+                //The appointment's customer and contact may be placeholders, so the choice boxes are set to their own
+                //copies, which match by ID.
                 if (!cb_customer.getItems().contains(appointment.customer())) {
                     cb_customer.getItems().clear();
                     cb_customer.getItems().addAll(Customer.getCustomers());
@@ -510,10 +548,10 @@ public class EditAppointmentController extends BackTracker<Appointment> implemen
                         //Missing customer. Possibly deleted by another user. Assume appointment invalid.
                         setAppointment(null, true);
                     } else {
-                        cb_customer.setValue(appointment.customer());
+                        cb_customer.setValue(cb_customer.getItems().get(cb_customer.getItems().indexOf(appointment.customer())));
                     }
                 } else {
-                    cb_customer.setValue(appointment.customer());
+                    cb_customer.setValue(cb_customer.getItems().get(cb_customer.getItems().indexOf(appointment.customer())));
                 }
 
                 if (!cb_contact.getItems().contains(appointment.contact())) {
@@ -523,10 +561,10 @@ public class EditAppointmentController extends BackTracker<Appointment> implemen
                         //Missing contact. Possibly deleted by another user. Assume appointment invalid.
                         setAppointment(null, true);
                     } else {
-                        cb_contact.setValue(appointment.contact());
+                        cb_contact.setValue(cb_contact.getItems().get(cb_contact.getItems().indexOf(appointment.contact())));
                     }
                 } else {
-                    cb_contact.setValue(appointment.contact());
+                    cb_contact.setValue(cb_contact.getItems().get(cb_contact.getItems().indexOf(appointment.contact())));
                 }
 
                 SideMenuController.INSTANCE.setCurrentUser(appointment.user());
@@ -570,19 +608,34 @@ public class EditAppointmentController extends BackTracker<Appointment> implemen
      */
     @Override
     public void onUserChange() {
+        DataAccess.load(loadUserChange(), Runnable::run);
+    }
+
+    /**
+     * Shows the new user and reloads the customer and contact lists alongside the other listeners.
+     * @return The load, returning the action that fills the choice boxes.
+     */
+    @Override
+    public Supplier<Runnable> loadUserChange() {
         if(User.current!=null) {
             if (appointment == null||User.current.isAdmin()&&SideMenuController.INSTANCE.getCurrentUser()!=User.ALL)
                 tf_user.setText(SideMenuController.INSTANCE.getCurrentUser().username());
             else
                 tf_user.setText(appointment.user().username());
         }
-        Customer c = cb_customer.getValue();
-        cb_customer.getItems().clear();
-        cb_customer.getItems().addAll(Customer.getCustomers());
-        cb_customer.setValue(c);
-        Contact c2 = cb_contact.getValue();
-        cb_contact.getItems().clear();
-        cb_contact.getItems().addAll(Contact.getContacts());
-        cb_contact.setValue(c2);
+        int generation = choiceGeneration.next();
+        return () -> {
+            ChoiceLists lists = new ChoiceLists(new ArrayList<>(Customer.getCustomers()), new ArrayList<>(Contact.getContacts()));
+            return () -> {
+                if(!choiceGeneration.isCurrent(generation))
+                    return;
+                Customer c = cb_customer.getValue();
+                cb_customer.getItems().setAll(lists.customers());
+                cb_customer.setValue(c);
+                Contact c2 = cb_contact.getValue();
+                cb_contact.getItems().setAll(lists.contacts());
+                cb_contact.setValue(c2);
+            };
+        };
     }
-}
\ No newline at end of file
+}
@@ -17,6 +17,7 @@ import scheduler.records.*;
 
 import java.io.IOException;
 import java.time.ZonedDateTime;
+import java.util.function.Function;
 
 /**
  * Controller for the preference menu. Also contains controls for testing.
@@ -101,19 +102,19 @@ public class PreferencesController {
         cb_min_duration.setOnAction(actionEvent -> minAppointmentDuration=cb_min_duration.getSelectionModel().getSelectedIndex()+1);
 
         b_5.setOnAction(actionEvent -> {
-            if(User.current!=null&&getTestingContact()!=null&&getTestingCustomer()!=null)
+            if(User.current!=null&&loadTestingData())
                 CalendarController.INSTANCE.addAppointment(Appointment.createNew("Alarm Test - 5 Minute", "Alarm Testing Appointment", "undefined", "Test", ZonedDateTime.now().plusMinutes(5), ZonedDateTime.now().plusMinutes(5).plusMinutes(minAppointmentDuration* 5L),testingMcGee,SideMenuController.INSTANCE.getCurrentUser(), testingContact));
         });
         b_10.setOnAction(actionEvent -> {
-            if(User.current!=null&&getTestingContact()!=null&&getTestingCustomer()!=null)
+            if(User.current!=null&&loadTestingData())
                 CalendarController.INSTANCE.addAppointment(Appointment.createNew("Alarm Test - 10 Minute", "Alarm Testing Appointment", "undefined", "Test", ZonedDateTime.now().plusMinutes(10), ZonedDateTime.now().plusMinutes(10).plusMinutes(minAppointmentDuration* 5L),testingMcGee,SideMenuController.INSTANCE.getCurrentUser(), testingContact));
         });
         b_15.setOnAction(actionEvent -> {
-            if(User.current!=null&&getTestingContact()!=null&&getTestingCustomer()!=null)
+            if(User.current!=null&&loadTestingData())
                 CalendarController.INSTANCE.addAppointment(Appointment.createNew("Alarm Test - 15 Minute", "Alarm Testing Appointment", "undefined", "Test", ZonedDateTime.now().plusMinutes(15), ZonedDateTime.now().plusMinutes(15).plusMinutes(minAppointmentDuration* 5L),testingMcGee,SideMenuController.INSTANCE.getCurrentUser(), testingContact));
         });
         b_20.setOnAction(actionEvent -> {
-            if(User.current!=null&&getTestingContact()!=null&&getTestingCustomer()!=null)
+            if(User.current!=null&&loadTestingData())
                 CalendarController.INSTANCE.addAppointment(Appointment.createNew("Alarm Test - 20 Minute", "Alarm Testing Appointment", "undefined", "Test", ZonedDateTime.now().plusMinutes(20), ZonedDateTime.now().plusMinutes(20).plusMinutes(minAppointmentDuration* 5L),testingMcGee,SideMenuController.INSTANCE.getCurrentUser(), testingContact));
         });
         l_test_appointment.visibleProperty().bind(cb_testing_mode.selectedProperty());
@@ -137,8 +138,7 @@ public class PreferencesController {
                 }
             }
             else {
-                getTestingCustomer();
-                getTestingContact();
+                loadTestingData();
             }
             EditAppointmentController.INSTANCE.onUserChange();
             EditAppointmentController.INSTANCE.calibrateTimes();
@@ -155,36 +155,31 @@ public class PreferencesController {
     }
 
     /**
-     * Gets the testing customer for use of creating test appointments. Creates it if it doesn't exist.
-     * @return The Test Customer
+     * Finds the testing customer and contact for use of creating test appointments. Whichever don't exist yet are
+     * created together in a single batch.
+     * @return True if both the testing customer and contact are available.
      */
-    private Customer getTestingCustomer() {
-        if(testingMcGee!=null) return testingMcGee;
+    private boolean loadTestingData() {
+        if(testingMcGee!=null&&testingContact!=null) return true;
         try{
-            JDBC.process("SELECT Customer_ID FROM customers WHERE Customer_Name=? AND Address=? AND Postal_Code=?;",(resultSet, row, count) -> testingMcGee = Customer.get(resultSet.getInt(1)), "Testing McGee", "123 Test Street", "12345");
+            if(testingMcGee==null)
+                JDBC.process("SELECT Customer_ID FROM customers WHERE Customer_Name=? AND Address=? AND Postal_Code=?;",(resultSet, row, count) -> testingMcGee = Customer.get(resultSet.getInt(1)), "Testing McGee", "123 Test Street", "12345");
+            if(testingContact==null)
+                JDBC.process("SELECT Contact_ID FROM contacts WHERE Contact_Name=? AND Email=?;",((resultSet, row, count) -> testingContact = Contact.get(resultSet.getInt(1))), "Testing McGee", "toomuch@testing.com");
         }catch (Exception ignored) {}
-        if(testingMcGee==null){
-            testingMcGee = Customer.createNew("Testing McGee", "123 Test Street", "12345", "123-456-7890", Divisions.get(43));
-        }
-        return testingMcGee;
-    }
-
-    /**
-     * Creates the test contact for use of creating test appointments. Creates it if it doesn't exist.
-     * @return The Test Contact
-     */
-    private Contact getTestingContact() {
-        if(testingContact!=null)return testingContact;
 
-        try{
-            JDBC.process("SELECT Contact_ID FROM contacts WHERE Contact_Name=? AND Email=?;",((resultSet, row, count) -> testingContact = Contact.get(resultSet.getInt(1))), "Testing McGee", "toomuch@testing.com");
-        }catch (Exception ignored) {}
-        if(testingContact==null){
-            if(JDBC.execute("INSERT INTO contacts (Contact_Name, Email) VALUES (?, ?);","Testing McGee", "toomuch@testing.com")){
-                JDBC.process("SELECT Contact_ID FROM contacts WHERE Contact_Name=? AND Email=?;",((resultSet, row, count) -> testingContact = Contact.get(resultSet.getInt(1))), "Testing McGee", "toomuch@testing.com");
+        JDBC.Batch batch = JDBC.batch();
+        Function<JDBC.BatchResult, Customer> customer = testingMcGee==null?
+                Customer.createNew(batch, "Testing McGee", "123 Test Street", "12345", "123-456-7890", Divisions.get(43)):null;
+        Function<JDBC.BatchResult, Contact> contact = testingContact==null?
+                Contact.createNew(batch, "Testing McGee", "toomuch@testing.com"):null;
+        if(batch.size()>0){
+            JDBC.BatchResult result = batch.execute();
+            if(result!=null){
+                if(customer!=null) testingMcGee = customer.apply(result);
+                if(contact!=null) testingContact = contact.apply(result);
             }
         }
-
-        return testingContact;
+        return testingMcGee!=null&&testingContact!=null;
     }
 }
\ No newline at end of file
@@ -17,15 +17,20 @@ import javafx.scene.layout.AnchorPane;
 import javafx.scene.text.Text;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import scheduler.DataAccess;
 import scheduler.DefaultLocale;
 import scheduler.JDBC;
 import scheduler.Main;
+import scheduler.StringPool;
+import scheduler.records.CompactAppointment;
 import scheduler.records.Contact;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * <p>Controller for the Report Scene.</p>
@@ -43,6 +48,7 @@ public class ReportController {
     public static ReportController INSTANCE;
 
     private static Stage reportStage;
+    private static final DataAccess.Generation reportGeneration = new DataAccess.Generation(), filterGeneration = new DataAccess.Generation();
 
     @FXML AnchorPane ap_report_pane;
     @FXML Label l_filter;
@@ -101,7 +107,8 @@ public class ReportController {
         }
 
         /**
-         * Returns a ZonedDateTime from the report entry.
+         * Returns a ZonedDateTime from the report entry. Entries stored as epoch seconds are converted when asked for,
+         * so large reports don't hold a ZonedDateTime per cell.
          * @param col Column number.
          * @return Returns requested int, or null if either not found or not a ZonedDateTime.
          */
@@ -109,6 +116,8 @@ public class ReportController {
             Object o = reportList.get(col);
             if(o instanceof ZonedDateTime)
                 return (ZonedDateTime) o;
+            if(o instanceof Long)
+                return Instant.ofEpochSecond((Long) o).atZone(DefaultLocale.zone);
             return null;
         }
 
@@ -226,6 +235,7 @@ public class ReportController {
         INSTANCE.b_filter_back.setVisible(false);
         INSTANCE.b_filter_next.setVisible(false);
 
+        filterGeneration.next(); //Drop filters still loading for the last report.
         INSTANCE.filterMap.clear();
         INSTANCE.filterMap.put(-1, DefaultLocale.translate("all"));
         INSTANCE.selectedFilter.set(-1);
@@ -255,6 +265,22 @@ public class ReportController {
         reportStage.setWidth(width);
     }
 
+    /**
+     * <p>Loads report rows in the background, then adds them to the report and resizes the window.</p>
+     * <p>Rows from an older report are dropped if another report was opened before they arrived.</p>
+     * @param query Fills the list with the report's rows. Runs off the JavaFX thread.
+     */
+    private static void load(Consumer<ArrayList<Report>> query) {
+        DataAccess.load(reportGeneration, () -> {
+            ArrayList<Report> rows = new ArrayList<>();
+            query.accept(rows);
+            return rows;
+        }, rows -> {
+            INSTANCE.reports.setAll(rows);
+            resize();
+        });
+    }
+
     /**
      * <p>Adds columns and data to the report window.</p>
      * <p>Will show the number of appointments grouped by Appointment Type and Month.</p>
@@ -273,10 +299,9 @@ public class ReportController {
         tc_appointment_year.setCellValueFactory(reportIntegerCellDataFeatures -> new SimpleIntegerProperty(reportIntegerCellDataFeatures.getValue().getInt(3)).asObject());
         INSTANCE.tv_report_table.getColumns().addAll(tc_appointment_count,tc_appointment_type,tc_appointment_month,tc_appointment_year);
         //Add data to report
-        JDBC.process("SELECT COUNT(Appointment_ID), Type, MONTH(Start), YEAR(Start) from appointments group by Type, MONTH(Start)+'-'+YEAR(Start);", (set,row,count)->
-            INSTANCE.reports.add(new Report(set.getInt(1),set.getString(2),set.getInt(3),set.getInt(4)))
-        );
-        resize();
+        load(rows -> JDBC.processStreaming("SELECT COUNT(Appointment_ID), Type, MONTH(Start), YEAR(Start) from appointments group by Type, MONTH(Start)+'-'+YEAR(Start);", (set,row)->
+            rows.add(new Report(set.getInt(1),StringPool.dedup(set.getString(2)),set.getInt(3),set.getInt(4)))
+        ));
         reportStage.showAndWait();
     }
 
@@ -293,9 +318,11 @@ public class ReportController {
         INSTANCE.l_filter.setVisible(true);
         INSTANCE.b_filter_back.setVisible(true);
         INSTANCE.b_filter_next.setVisible(true);
-        for(Contact c: Contact.getContacts()){
-            INSTANCE.filterMap.put(c.id(), c.name());
-        }
+        DataAccess.load(filterGeneration, () -> new ArrayList<>(Contact.getContacts()), contacts -> {
+            for(Contact c: contacts){
+                INSTANCE.filterMap.put(c.id(), c.name());
+            }
+        });
         DateTimeFormatter dtf = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm a");
 
         //Add columns
@@ -316,11 +343,14 @@ public class ReportController {
 
         //Add data
         INSTANCE.tv_report_table.getColumns().addAll(report_id,report_title,report_type,report_description,report_start,report_end,report_customer_id);
-        JDBC.process("SELECT Appointment_ID, Title, Type, Description, Start, End, Customer_ID, Contact_ID from appointments ORDER BY Contact_ID, Start;",(set,row,count)->
-            INSTANCE.reports.add(new Report(set.getInt(1),set.getString(2),set.getString(3),set.getString(4),DefaultLocale.userDateTime(set.getTimestamp(5)),DefaultLocale.userDateTime(set.getTimestamp(6)),set.getInt(7),set.getInt(8)).setPredicate(7))
-        );
+        load(rows -> {
+            //Compact rows keep times as epoch seconds; sorting by contact keeps them in start order within each contact.
+            ArrayList<CompactAppointment> appointments = CompactAppointment.getAppointments(null, null, null);
+            appointments.sort(Comparator.comparingInt(CompactAppointment::contactID));
+            for(CompactAppointment a: appointments)
+                rows.add(new Report(a.appointmentID(),a.title(),a.type(),a.description(),a.start(),a.end(),a.customerID(),a.contactID()).setPredicate(7));
+        });
 
-        resize();
         reportStage.showAndWait();
     }
 
@@ -344,11 +374,10 @@ public class ReportController {
         INSTANCE.tv_report_table.getColumns().addAll(appointment_count,customer_count,country);
 
         //Add data
-        JDBC.process("SELECT COUNT(Appointment_ID) AS Appointment_Count, COUNT(DISTINCT appointments.Customer_ID) AS Customer_Count, (CASE WHEN countries.Country='UK' THEN first_level_divisions.Division ELSE countries.Country END) AS Country from appointments LEFT JOIN customers on appointments.Customer_ID=customers.Customer_ID LEFT JOIN first_level_divisions on customers.Division_ID=first_level_divisions.Division_ID LEFT JOIN countries on first_level_divisions.Country_ID=countries.Country_ID GROUP BY (CASE WHEN countries.Country='UK' THEN customers.Division_ID ELSE first_level_divisions.Country_ID END) ORDER BY Appointment_Count DESC;",(set,row,count)->
-                INSTANCE.reports.add(new Report(set.getInt(1),set.getInt(2),set.getString(3)))
-        );
+        load(rows -> JDBC.processStreaming("SELECT COUNT(Appointment_ID) AS Appointment_Count, COUNT(DISTINCT appointments.Customer_ID) AS Customer_Count, (CASE WHEN countries.Country='UK' THEN first_level_divisions.Division ELSE countries.Country END) AS Country from appointments LEFT JOIN customers on appointments.Customer_ID=customers.Customer_ID LEFT JOIN first_level_divisions on customers.Division_ID=first_level_divisions.Division_ID LEFT JOIN countries on first_level_divisions.Country_ID=countries.Country_ID GROUP BY (CASE WHEN countries.Country='UK' THEN customers.Division_ID ELSE first_level_divisions.Country_ID END) ORDER BY Appointment_Count DESC;",(set,row)->
+                rows.add(new Report(set.getInt(1),set.getInt(2),StringPool.dedup(set.getString(3))))
+        ));
 
-        resize();
         reportStage.showAndWait();
     }
 }
@@ -8,13 +8,16 @@ import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.Label;
+import scheduler.DataAccess;
 import scheduler.DefaultLocale;
 import scheduler.JDBC;
+import scheduler.RefreshScheduler;
 import scheduler.records.User;
 
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.function.Supplier;
 
 /**
  * <p>Initializes translations and provides controls for the Side Menu on several of the scenes.</p>
@@ -138,10 +141,13 @@ public class SideMenuController implements User.UserListener {
                 cb_user_select.getItems().add(User.ALL);
                 cb_user_select.getItems().addAll(User.getUsers());
                 if (cb_user_select.getItems().contains(user)) {
+                    user = cb_user_select.getItems().get(cb_user_select.getItems().indexOf(user));
                     cb_user_select.setValue(user);
                     currentUser=user;
                 }
             } else {
+                //Use the list's copy, which matches by ID, in case the one passed in is a placeholder.
+                user = cb_user_select.getItems().get(cb_user_select.getItems().indexOf(user));
                 cb_user_select.setValue(user);
                 currentUser=user;
             }
@@ -186,6 +192,24 @@ public class SideMenuController implements User.UserListener {
      */
     @Override
     public void onUserChange() {
+        showUser();
+        refreshAppointments();
+    }
+
+    /**
+     * Loads the side menu counters for a new user alongside the other listeners.
+     * @return The load, returning the action that shows the counters.
+     */
+    @Override
+    public Supplier<Runnable> loadUserChange() {
+        showUser();
+        return loadAppointments();
+    }
+
+    /**
+     * Shows the logged in user, or the user selection for admins.
+     */
+    private void showUser() {
         isAdmin = User.current!=null&&User.current.isAdmin();
 
         l_user_name.setVisible(!isAdmin);
@@ -205,32 +229,66 @@ public class SideMenuController implements User.UserListener {
             cb_user_select.setValue(null);
             currentUser=null;
         }
-        refreshAppointments();
     }
 
     /**
-     * Refreshes appointment counters and next appointment timer.
+     * Counters and next appointment loaded for the side menu.
+     */
+    private record AppointmentSummary(int appointments, int clients, int nextID, ZonedDateTime nextStart, ZonedDateTime nextEnd) { }
+
+    private static final DataAccess.Generation summaryGeneration = new DataAccess.Generation();
+
+    private static final RefreshScheduler.Task summaryRefresh = RefreshScheduler.register("side menu",
+            () -> DataAccess.load(loadAppointments(), Runnable::run));
+
+    /**
+     * Refreshes appointment counters and next appointment timer. The counts are loaded in the background, once for
+     * every request made while handling the same event, see {@link RefreshScheduler}.
      */
     public static void refreshAppointments(){
+        summaryRefresh.invalidate();
+    }
+
+    /**
+     * Starts a refresh of the appointment counters and next appointment timer.
+     * @return The load, returning the action that shows the results. Results are dropped if a newer refresh starts.
+     */
+    private static Supplier<Runnable> loadAppointments(){
+        int generation = summaryGeneration.next();
         if(User.current!=null) {
-            JDBC.process("SELECT COUNT(Appointment_ID), COUNT(DISTINCT Customer_ID) FROM appointments WHERE End>=?" + (INSTANCE.getCurrentUser() == User.ALL ? "" : " AND User_ID=?") + ";", (resultSet, row, count) -> {
-                numAppointments.set(resultSet.getInt(1));
-                numClients.set(resultSet.getInt(2));
-            }, DefaultLocale.sqlDateTime(ZonedDateTime.now()), (INSTANCE.getCurrentUser() == User.ALL ? null : INSTANCE.getCurrentUser().id()));
-            nextAppointmentStart = null;
-            nextAppointmentEnd = null;
-            nextAppointmentID = -1;
-            JDBC.process("SELECT Appointment_ID, Start, End FROM appointments WHERE End>=?" + (INSTANCE.getCurrentUser() == User.ALL ? "" : " AND User_ID=?") + " ORDER BY Start ASC LIMIT 1;", (resultSet, row, count) -> {
-                nextAppointmentID=resultSet.getInt(1);
-                nextAppointmentStart=DefaultLocale.userDateTime(resultSet.getTimestamp(2));
-                nextAppointmentEnd=DefaultLocale.userDateTime(resultSet.getTimestamp(3));
-                timer.start();
-            }, DefaultLocale.sqlDateTime(ZonedDateTime.now()), (INSTANCE.getCurrentUser() == User.ALL ? null : INSTANCE.getCurrentUser().id()));
+            //A null var now binds as NULL, so only pass the user ID when the query has a place for it.
+            boolean all = INSTANCE.getCurrentUser() == User.ALL;
+            Object[] vars = all ? new Object[]{ZonedDateTime.now()} : new Object[]{ZonedDateTime.now(), INSTANCE.getCurrentUser().id()};
+            return () -> {
+                int[] counts = new int[2];
+                JDBC.process("SELECT COUNT(Appointment_ID), COUNT(DISTINCT Customer_ID) FROM appointments WHERE End>=?" + (all ? "" : " AND User_ID=?") + ";", (resultSet, row, count) -> {
+                    counts[0] = resultSet.getInt(1);
+                    counts[1] = resultSet.getInt(2);
+                }, vars);
+                AppointmentSummary[] next = {new AppointmentSummary(counts[0], counts[1], -1, null, null)};
+                JDBC.process("SELECT Appointment_ID, Start, End FROM appointments WHERE End>=?" + (all ? "" : " AND User_ID=?") + " ORDER BY Start ASC LIMIT 1;", (resultSet, row, count) ->
+                    next[0] = new AppointmentSummary(counts[0], counts[1], resultSet.getInt(1),
+                            DefaultLocale.userDateTime(resultSet.getTimestamp(2)),
+                            DefaultLocale.userDateTime(resultSet.getTimestamp(3))), vars);
+                AppointmentSummary summary = next[0];
+                return () -> {
+                    if(!summaryGeneration.isCurrent(generation))
+                        return;
+                    numAppointments.set(summary.appointments());
+                    numClients.set(summary.clients());
+                    nextAppointmentID = summary.nextID();
+                    nextAppointmentStart = summary.nextStart();
+                    nextAppointmentEnd = summary.nextEnd();
+                    if(nextAppointmentID >= 0)
+                        timer.start();
+                };
+            };
         } else {
             numAppointments.set(0);
             numClients.set(0);
             nextAppointment.setValue(DefaultLocale.translate("no_appointment"));
             timer.stop();
+            return () -> () -> { };
         }
     }
 }
@@ -97,7 +97,7 @@ public class CalendarDayCell extends TableCell<CalendarWeek, CalendarDay> implem
             if (getItem() == null) return;
             if (getItem().date().getMonthValue() != CalendarController.selectedDay.get().getMonthValue()) {
                 background.setBackground(outOfMonthBackground);
-            } else if (getItem().date().getDayOfYear() == CalendarController.selectedDay.get().getDayOfYear())
+            } else if (CalendarMonth.epochDay(getItem().date()) == CalendarMonth.epochDay(CalendarController.selectedDay.get()))
                 background.setBackground(selectedBackground);
             else
                 background.setBackground(defaultBackground);
@@ -181,7 +181,7 @@ public class CalendarDayCell extends TableCell<CalendarWeek, CalendarDay> implem
             {
                 background.setBackground(outOfMonthBackground);
             }
-            else if(getItem().date().getDayOfYear()==CalendarController.selectedDay.get().getDayOfYear())
+            else if(CalendarMonth.epochDay(getItem().date()) == CalendarMonth.epochDay(CalendarController.selectedDay.get()))
                 background.setBackground(selectedBackground);
             else
                 background.setBackground(defaultBackground);
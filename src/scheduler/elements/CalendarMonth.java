@@ -0,0 +1,311 @@
+package scheduler.elements;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import scheduler.IntObjectMap;
+import scheduler.records.Appointment;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoField;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Holds the weeks shown by the Calendar View, from the Sunday on or before the 1st of the month to the Saturday on or
+ * after its last day.</p>
+ * <p>Days are indexed by epoch day and placed appointments by ID, so finding the day for a time, or moving and removing
+ * an appointment, is a lookup rather than a search through the weeks. Epoch days also keep days from different years
+ * apart, which day of year doesn't.</p>
+ * <p>Every placed appointment is also kept in one observable list, so other views of the month, such as the List View,
+ * can filter it instead of loading the appointments again.</p>
+ */
+public class CalendarMonth {
+    private final long firstDay;
+    private final List<CalendarWeek> weeks;
+    private final CalendarDay[] days;
+    private final IntObjectMap<Appointment> placed = new IntObjectMap<>();
+    private final ObservableList<Appointment> appointments = FXCollections.observableArrayList();
+    private final ObservableList<Appointment> readOnly = FXCollections.unmodifiableObservableList(appointments);
+
+    /**
+     * Generates the weeks of the month containing the {@link ZonedDateTime}.
+     * @param day A time inside the requested month.
+     */
+    public CalendarMonth(ZonedDateTime day) {
+        ZonedDateTime first = start(day);
+        firstDay = epochDay(first);
+
+        ArrayList<CalendarWeek> weeks = new ArrayList<>();
+        ArrayList<CalendarDay> days = new ArrayList<>();
+        for (long sunday = firstDay; sunday <= lastDay(day); sunday += 7) {
+            CalendarWeek week = new CalendarWeek(first.plusDays(sunday - firstDay));
+            weeks.add(week);
+            days.addAll(List.of(week.getSunday(), week.getMonday(), week.getTuesday(), week.getWednesday(),
+                    week.getThursday(), week.getFriday(), week.getSaturday()));
+        }
+        this.weeks = Collections.unmodifiableList(weeks);
+        this.days = days.toArray(new CalendarDay[0]);
+    }
+
+    /**
+     * Returns the start of the first day shown for a month, without building it.
+     * @param day A time inside the month.
+     * @return The Sunday on or before the 1st, at midnight.
+     */
+    public static ZonedDateTime start(ZonedDateTime day) {
+        //Shift java's mon-sun week schedule to a sun-sat schedule
+        //+1 days -> 7th day of the week -> -1 week
+        return day.with(ChronoField.DAY_OF_MONTH, 1).plusDays(1).with(ChronoField.DAY_OF_WEEK, 7).minusWeeks(1)
+                .truncatedTo(ChronoUnit.DAYS);
+    }
+
+    /**
+     * Returns the end of the last day shown for a month, without building it.
+     * @param day A time inside the month.
+     * @return The Sunday after the last week, at midnight.
+     */
+    public static ZonedDateTime end(ZonedDateTime day) {
+        ZonedDateTime first = start(day);
+        return first.plusWeeks((lastDay(day) - epochDay(first)) / 7 + 1);
+    }
+
+    private static long lastDay(ZonedDateTime day) {
+        return day.toLocalDate().withDayOfMonth(day.toLocalDate().lengthOfMonth()).toEpochDay();
+    }
+
+    /**
+     * Returns the day a time falls on, counted from 1970-01-01 in the time's own zone.
+     * @param time The time.
+     * @return The epoch day.
+     */
+    public static long epochDay(ZonedDateTime time) {
+        return time.toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Returns the weeks, in order.
+     * @return The weeks.
+     */
+    public List<CalendarWeek> weeks() {
+        return weeks;
+    }
+
+    /**
+     * Returns the start of the first day shown.
+     * @return The first Sunday at midnight.
+     */
+    public ZonedDateTime start() {
+        return days[0].date();
+    }
+
+    /**
+     * Returns the end of the last day shown.
+     * @return The Sunday after the last week, at midnight.
+     */
+    public ZonedDateTime end() {
+        return days[0].date().plusDays(days.length);
+    }
+
+    /**
+     * Returns the epoch day of the first Sunday shown.
+     * @return The first day.
+     */
+    public long firstDay() {
+        return firstDay;
+    }
+
+    /**
+     * Returns the day a time falls on.
+     * @param time The time.
+     * @return The day, or null if it isn't shown.
+     */
+    public CalendarDay dayOf(ZonedDateTime time) {
+        long i = epochDay(time) - firstDay;
+        return i >= 0 && i < days.length ? days[(int) i] : null;
+    }
+
+    /**
+     * Returns the week a time falls in.
+     * @param time The time.
+     * @return The week, or null if it isn't shown.
+     */
+    public CalendarWeek weekOf(ZonedDateTime time) {
+        long i = epochDay(time) - firstDay;
+        return i >= 0 && i < days.length ? weeks.get((int) (i / 7)) : null;
+    }
+
+    /**
+     * Returns every placed appointment, in the order they were placed. The list updates as appointments are added and
+     * removed.
+     * @return A read only view of the appointments.
+     */
+    public ObservableList<Appointment> appointments() {
+        return readOnly;
+    }
+
+    /**
+     * Returns a placed appointment.
+     * @param appointmentID The appointment's ID.
+     * @return The appointment, or null if it isn't placed.
+     */
+    public Appointment get(int appointmentID) {
+        return placed.get(appointmentID);
+    }
+
+    /**
+     * Places an appointment on the day it starts, in start order. If it was already placed, it is moved.
+     * @param appointment The appointment.
+     * @return True if it was placed, false if it starts outside the shown days.
+     */
+    public boolean add(Appointment appointment) {
+        update(new int[]{appointment.appointmentID()}, List.of(appointment));
+        return placed.get(appointment.appointmentID()) == appointment;
+    }
+
+    /**
+     * Removes an appointment from the day it was placed on.
+     * @param appointmentID The appointment's ID.
+     * @return The removed appointment, or null if it wasn't placed.
+     */
+    public Appointment remove(int appointmentID) {
+        Appointment old = placed.get(appointmentID);
+        if (old != null)
+            update(new int[]{appointmentID}, List.of());
+        return old;
+    }
+
+    /**
+     * <p>Removes and places several appointments at once.</p>
+     * <p>Each day that changes gets its new list in a single {@link ObservableList#setAll}, so the cell showing it
+     * redraws once no matter how many of its appointments changed. The list of every appointment gets one removal and
+     * one addition of just the appointments that changed.</p>
+     * @param removed IDs of the appointments to remove. IDs that aren't placed are ignored.
+     * @param added Appointments to place, replacing any already placed with the same ID. Those starting outside the
+     *              shown days are left out.
+     */
+    public void update(int[] removed, List<Appointment> added) {
+        IntObjectMap<ArrayList<Appointment>> changed = new IntObjectMap<>();
+        IntObjectMap<Appointment> gone = new IntObjectMap<>();
+        for (int id : removed)
+            unplace(id, changed, gone);
+        for (Appointment appointment : added)
+            unplace(appointment.appointmentID(), changed, gone);
+
+        ArrayList<Appointment> placedNow = new ArrayList<>(added.size());
+        for (Appointment appointment : added) {
+            long i = epochDay(appointment.start()) - firstDay;
+            if (i < 0 || i >= days.length)
+                continue;
+            List<Appointment> list = dayList(changed, (int) i);
+            //Searched from the end, so appointments added in start order are appended straight away.
+            int at = list.size();
+            while (at > 0 && list.get(at - 1).start().isAfter(appointment.start()))
+                at--;
+            list.add(at, appointment);
+            placed.put(appointment.appointmentID(), appointment);
+            placedNow.add(appointment);
+        }
+
+        changed.forEach((i, list) -> days[i].appointments().setAll(list));
+        //Only the removed and added appointments are passed on, so views filtering the list don't redo the month.
+        if (!gone.isEmpty())
+            appointments.removeAll(gone.values());
+        if (!placedNow.isEmpty())
+            appointments.addAll(placedNow);
+    }
+
+    /**
+     * Replaces every appointment with a layout built for this month. Each day is set in one change, and days that
+     * stay empty aren't touched.
+     * @param layout The appointments sorted into days, from {@link Layout#Layout(long, int, List)} with this month's
+     *               {@link #firstDay()} and {@link #dayCount()}.
+     * @return True if the layout was applied, false if it was built for a different month.
+     */
+    public boolean setAll(Layout layout) {
+        if (layout.firstDay != firstDay || layout.days.size() != days.length)
+            return false;
+        placed.clear();
+        for (int i = 0; i < days.length; i++) {
+            List<Appointment> list = layout.days.get(i);
+            if (!list.isEmpty() || !days[i].appointments().isEmpty())
+                days[i].appointments().setAll(list);
+            for (Appointment appointment : list)
+                placed.put(appointment.appointmentID(), appointment);
+        }
+        appointments.setAll(layout.all);
+        return true;
+    }
+
+    /**
+     * Removes every appointment.
+     */
+    public void clear() {
+        setAll(new Layout(firstDay, days.length, List.of()));
+    }
+
+    /**
+     * Returns the number of days shown.
+     * @return The number of days, a multiple of 7.
+     */
+    public int dayCount() {
+        return days.length;
+    }
+
+    /**
+     * Takes an appointment off its day's pending list, copying that day's list first if needed.
+     */
+    private void unplace(int appointmentID, IntObjectMap<ArrayList<Appointment>> changed,
+                         IntObjectMap<Appointment> gone) {
+        Appointment old = placed.remove(appointmentID);
+        if (old == null)
+            return;
+        gone.put(appointmentID, old);
+        dayList(changed, (int) (epochDay(old.start()) - firstDay)).remove(old);
+    }
+
+    /**
+     * Returns the pending new list for a day, starting from a copy of its current list.
+     */
+    private ArrayList<Appointment> dayList(IntObjectMap<ArrayList<Appointment>> changed, int day) {
+        ArrayList<Appointment> list = changed.get(day);
+        if (list == null)
+            changed.put(day, list = new ArrayList<>(days[day].appointments()));
+        return list;
+    }
+
+    /**
+     * <p>Appointments sorted into the days of a month, ready for {@link #setAll(Layout)}.</p>
+     * <p>Only needs the month's first day and length, not the month itself, so it can be built on a background thread
+     * while the month stays on the JavaFX thread.</p>
+     */
+    public static final class Layout {
+        private final long firstDay;
+        private final List<List<Appointment>> days;
+        private final List<Appointment> all;
+
+        /**
+         * Sorts appointments into days.
+         * @param firstDay The month's {@link #firstDay()}.
+         * @param dayCount The month's {@link #dayCount()}.
+         * @param appointments The appointments, in start order. Those starting outside the shown days are left out.
+         */
+        public Layout(long firstDay, int dayCount, List<Appointment> appointments) {
+            this.firstDay = firstDay;
+            ArrayList<List<Appointment>> days = new ArrayList<>(dayCount);
+            for (int i = 0; i < dayCount; i++)
+                days.add(new ArrayList<>());
+            ArrayList<Appointment> all = new ArrayList<>(appointments.size());
+            for (Appointment appointment : appointments) {
+                long i = epochDay(appointment.start()) - firstDay;
+                if (i >= 0 && i < dayCount) {
+                    days.get((int) i).add(appointment);
+                    all.add(appointment);
+                }
+            }
+            this.days = days;
+            this.all = all;
+        }
+    }
+}
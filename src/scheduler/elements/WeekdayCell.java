@@ -103,7 +103,7 @@ public class WeekdayCell extends TableCell<CalendarWeek,CalendarDay> implements
 
             CalendarController.selectedDay.addListener(this);
 
-            if (calendarDay.date().getDayOfYear() == CalendarController.selectedDay.get().getDayOfYear())
+            if (CalendarMonth.epochDay(calendarDay.date()) == CalendarMonth.epochDay(CalendarController.selectedDay.get()))
                 background.setBackground(selectedBackground);
             else
                 background.setBackground(defaultBackground);
@@ -220,7 +220,7 @@ public class WeekdayCell extends TableCell<CalendarWeek,CalendarDay> implements
             ZonedDateTime end = CalendarController.selectedDay.get().plusDays(1).with(ChronoField.DAY_OF_WEEK,7).truncatedTo(ChronoUnit.DAYS);
             if(getItem().date().isBefore(start)||getItem().date().isAfter(end)) //Check to see if this is outside of the visible days of the calendar, remove listeners if it is.
                 clearListeners();
-            else if(getItem().date().getDayOfYear()==CalendarController.selectedDay.get().getDayOfYear())
+            else if(CalendarMonth.epochDay(getItem().date()) == CalendarMonth.epochDay(CalendarController.selectedDay.get()))
                 background.setBackground(selectedBackground);
             else
                 background.setBackground(defaultBackground);
@@ -1,23 +1,121 @@
 package scheduler.records;
 
+import scheduler.DataAccess;
 import scheduler.DefaultLocale;
 import scheduler.JDBC;
+import scheduler.StringPool;
+import scheduler.controllers.CalendarController;
 import scheduler.controllers.EditAppointmentController;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
 
 /**
- * Holds records for appointments and functions related to them.
+ * <p>Holds records for appointments and functions related to them.</p>
+ * <p>The customer, user, and contact are kept as IDs and looked up in their record caches when asked for, so every
+ * appointment sees the same, latest copy of each one. Updating a customer shows up on every appointment already
+ * loaded without querying the appointments again. The lookups never query the database themselves: one that misses
+ * returns a placeholder and loads the record in the background.</p>
  * @author Ken Butler
  */
 public record Appointment(int appointmentID, String title, String description,
                           String location, String type, ZonedDateTime start,
                           ZonedDateTime end, ZonedDateTime creation_date, String created_by, String last_updated_by,
-                          ZonedDateTime last_update, Customer customer, User user,
-                          Contact contact) {
+                          ZonedDateTime last_update, int customerID, int userID,
+                          int contactID) {
+
+    /**
+     * Creates an appointment from its customer, user, and contact records.
+     * @param appointmentID The Appointment's ID
+     * @param title The Appointment's Title
+     * @param description The Appointment's description
+     * @param location The Appointment's location
+     * @param type The Appointment's type
+     * @param start The starting time and date of the appointment.
+     * @param end The ending time and date of the appointment.
+     * @param creation_date When the appointment was created.
+     * @param created_by Who created the appointment.
+     * @param last_updated_by Who last updated the appointment.
+     * @param last_update When the appointment was last updated.
+     * @param customer The customer requesting the appointment.
+     * @param user The user who owns the appointment.
+     * @param contact The appointment's contact info.
+     */
+    public Appointment(int appointmentID, String title, String description,
+                       String location, String type, ZonedDateTime start,
+                       ZonedDateTime end, ZonedDateTime creation_date, String created_by, String last_updated_by,
+                       ZonedDateTime last_update, Customer customer, User user,
+                       Contact contact) {
+        this(appointmentID, title, description, location, type, start, end, creation_date, created_by,
+                last_updated_by, last_update, customer.id(), user.id(), contact.id());
+    }
+
+    /**
+     * Returns the customer requesting the appointment. Only reads the cache, so it is safe on the JavaFX thread.
+     * @return The current copy of the customer. If it isn't cached, a placeholder with the customer's ID while it
+     *         loads, or for good if it no longer exists.
+     */
+    public Customer customer() {
+        Customer customer = Customer.getIfCached(customerID);
+        if (customer != null)
+            return customer;
+        fill(CUSTOMER, customerID, Customer::get);
+        return new Customer(customerID, "#" + customerID, "", "", "", null, "", null, "", Customer.addNew.division());
+    }
+
+    /**
+     * Returns the user who owns the appointment. Only reads the cache, so it is safe on the JavaFX thread.
+     * @return The current copy of the user. If it isn't cached, a placeholder with the user's ID while it loads.
+     */
+    public User user() {
+        User user = User.getIfCached(userID);
+        if (user != null)
+            return user;
+        fill(USER, userID, User::get);
+        return new User("#" + userID, userID);
+    }
+
+    /**
+     * Returns the appointment's contact. Only reads the cache, so it is safe on the JavaFX thread.
+     * @return The current copy of the contact. If it isn't cached, a placeholder with the contact's ID while it loads,
+     *         or for good if it no longer exists.
+     */
+    public Contact contact() {
+        Contact contact = Contact.getIfCached(contactID);
+        if (contact != null)
+            return contact;
+        fill(CONTACT, contactID, Contact::get);
+        return new Contact(contactID, "#" + contactID, "");
+    }
+
+    //Kinds of record filled in the background, and the ones being filled, so each missing record is queued once.
+    private static final int CUSTOMER = 0, USER = 1, CONTACT = 2;
+    private static final Set<Long> filling = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Loads a record that wasn't cached in the background, and has the calendar redraw it once it is.
+     * @param kind Which kind of record.
+     * @param id The record's ID.
+     * @param load Loads the record into its cache. Returns null if it doesn't exist.
+     */
+    private static void fill(int kind, int id, IntFunction<?> load) {
+        long key = (long) kind << 32 | (id & 0xFFFFFFFFL);
+        if (!filling.add(key))
+            return;
+        DataAccess.supply(() -> load.apply(id)).whenComplete((found, e) -> {
+            filling.remove(key);
+            if (found != null)
+                DataAccess.runOnFxThread(() -> {
+                    if (CalendarController.INSTANCE != null)
+                        CalendarController.INSTANCE.refresh_references();
+                });
+        });
+    }
 
     /**
      * Updates the database with new information and returns the updated record.
@@ -42,10 +140,10 @@ public record Appointment(int appointmentID, String title, String description,
 
         //Check to make sure appointment still exists, if not, recreate it. Someone may have deleted.
         if(EditAppointmentController.INSTANCE.getAppointment()!=null){
-            ResultSet rs2 = JDBC.getResults("SELECT Appointment_ID FROM appointments WHERE Appointment_ID="+appointmentID+";");
+            ResultSet rs2 = JDBC.getResults("SELECT Appointment_ID FROM appointments WHERE Appointment_ID=?;", appointmentID);
             try {
                 if (rs2 == null || !rs2.next()) {
-                    EditAppointmentController.INSTANCE.setAppointment(null, false);
+                    DataAccess.runOnFxThread(() -> EditAppointmentController.INSTANCE.setAppointment(null, false));
                     return createNew(title,description,location,type,start,end,customer,user,contact);
                 }
             }catch (SQLException ignored){
@@ -57,21 +155,20 @@ public record Appointment(int appointmentID, String title, String description,
 
         if(!title.equals(this.title)||!description.equals(this.description)||
                 !location.equals(this.location)||!type.equals(this.type)||
-                !start.equals(this.start)||!end.equals(this.end)||!customer.equals(this.customer)||
-                !user.equals(this.user)||!contact.equals(this.contact)
+                !start.equals(this.start)||!end.equals(this.end)||customer.id()!=this.customerID||
+                user.id()!=this.userID||contact.id()!=this.contactID
         ) {
             if (JDBC.execute("UPDATE appointments SET Title=?, Description=?, Location=?, Type=?, " +
-                    "Start='" + DefaultLocale.sqlDateTime(start) + "', " +
-                    "End='" + DefaultLocale.sqlDateTime(end) + "', " +
-                    "Last_Update='" + DefaultLocale.sqlDateTime(ZonedDateTime.now()) + "', " +
-                    "Last_Updated_By='" + User.current.username() + "', " +
-                    "Customer_ID=" + customer.id() + ", " +
-                    "User_ID=" + user.id() + ", " +
-                    "Contact_ID=" + contact.id() +
-                    " WHERE Appointment_ID=" + appointmentID + ";", title, description, location, type)) {
-                return new Appointment(this.appointmentID, title, description,
+                    "Start=?, End=?, Last_Update=?, Last_Updated_By=?, Customer_ID=?, User_ID=?, Contact_ID=? " +
+                    "WHERE Appointment_ID=?;", title, description, location, type, start, end, ZonedDateTime.now(),
+                    User.current.username(), customer.id(), user.id(), contact.id(), appointmentID)) {
+                Appointment updated = new Appointment(this.appointmentID, title, description,
                         location, type, start, end, this.creation_date, this.created_by, User.current.username(),
                         ZonedDateTime.now(), customer, user, contact);
+                CompactAppointment compact = CompactAppointment.of(updated);
+                AppointmentIndex.put(compact);
+                MonthCache.put(compact);
+                return updated;
             } else
                 return null;
         }
@@ -97,35 +194,19 @@ public record Appointment(int appointmentID, String title, String description,
                                         ZonedDateTime end, Customer customer, User user,
                                         Contact contact) {
         ZonedDateTime now = ZonedDateTime.now();
-        String now2 = DefaultLocale.sqlDateTime(now);
-        if (JDBC.execute("INSERT INTO appointments (Title, Description, Location, " +
+        int id = JDBC.insert("INSERT INTO appointments (Title, Description, Location, " +
                 "Type, Start, End, Create_Date, Created_By, Last_Update, Last_Updated_By, " +
-                "Customer_ID, User_ID, Contact_ID) VALUES (?, ?, ?, ?, " +
-                "'" + DefaultLocale.sqlDateTime(start) + "', " +
-                "'" + DefaultLocale.sqlDateTime(end) + "', " +
-                "'" + now2 + "', " +
-                "'" + User.current.username() + "', " +
-                "'" + now2 + "', " +
-                "'" + User.current.username() + "', " +
-                customer.id() + ", " +
-                user.id() + ", " +
-                contact.id() + ");", title, description, location, type)) {
-            try {
-                ResultSet appointment = JDBC.getResults("SELECT Appointment_ID FROM appointments WHERE " +
-                        "Created_By='" + User.current.username() + "' ORDER BY Create_Date DESC LIMIT 1;");
-                if (appointment == null) {
-                    System.out.println("Appointment null");
-                    return null;
-                }
-                if (appointment.next()) {
-                    return new Appointment(appointment.getInt(1), title, description,
-                            location, type, start, end, now, User.current.username(), User.current.username(),
-                            now, customer, user, contact);
-                } else
-                    System.out.println("Appointment doesn't have next");
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+                "Customer_ID, User_ID, Contact_ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?);",
+                title, description, location, type, start, end, now, User.current.username(), now,
+                User.current.username(), customer.id(), user.id(), contact.id());
+        if (id >= 0) {
+            Appointment created = new Appointment(id, title, description,
+                    location, type, start, end, now, User.current.username(), User.current.username(),
+                    now, customer, user, contact);
+            CompactAppointment compact = CompactAppointment.of(created);
+            AppointmentIndex.put(compact);
+            MonthCache.put(compact);
+            return created;
         }
         return null;
     }
@@ -135,7 +216,75 @@ public record Appointment(int appointmentID, String title, String description,
      * @return Whether there were no errors in executing the statement.
      */
     public boolean cancelAppointment() {
-        return JDBC.execute("DELETE FROM appointments WHERE Appointment_ID=" + appointmentID);
+        if (!JDBC.execute("DELETE FROM appointments WHERE Appointment_ID=?;", appointmentID))
+            return false;
+        AppointmentIndex.remove(appointmentID);
+        MonthCache.remove(appointmentID);
+        return true;
+    }
+
+    /**
+     * <p>Selects an appointment joined with its customer, division, country, user, and contact.</p>
+     * <p>Only the columns the records need are selected, so a whole {@link Appointment} can be built from one row
+     * without looking anything else up.</p>
+     */
+    private static final String SELECT_JOINED = "SELECT a.Appointment_ID, a.Title, a.Description, a.Location, a.Type, " +
+            "a.Start, a.End, a.Create_Date, a.Created_By, a.Last_Update, a.Last_Updated_By, " +
+            "c.Customer_ID, c.Customer_Name, c.Address, c.Postal_Code, c.Phone, c.Create_Date, c.Created_By, " +
+            "c.Last_Update, c.Last_Updated_By, d.Division_ID, d.Division, co.Country_ID, co.Country, " +
+            "u.User_ID, u.User_Name, ct.Contact_ID, ct.Contact_Name, ct.Email " +
+            "FROM appointments a " +
+            "JOIN customers c ON a.Customer_ID=c.Customer_ID " +
+            "JOIN first_level_divisions d ON c.Division_ID=d.Division_ID " +
+            "JOIN countries co ON d.Country_ID=co.Country_ID " +
+            "JOIN users u ON a.User_ID=u.User_ID " +
+            "JOIN contacts ct ON a.Contact_ID=ct.Contact_ID";
+
+    /**
+     * <p>Builds an appointment from a row of {@link #SELECT_JOINED}, caching the customer, division, country, user, and
+     * contact as it goes.</p>
+     * <p>Location, type, and the created and updated by names repeat across many rows, so they go through the
+     * {@link StringPool}.</p>
+     * @param rs The result set, on the row to read.
+     * @return The appointment.
+     * @throws SQLException Thrown if the row could not be read.
+     */
+    private static Appointment fromJoinedRow(ResultSet rs) throws SQLException {
+        Country country = Country.cache(rs.getInt(23), rs.getString(24));
+        Divisions division = Divisions.cache(rs.getInt(21), rs.getString(22), country);
+        Customer customer = Customer.cache(new Customer(rs.getInt(12), rs.getString(13), rs.getString(14),
+                rs.getString(15), rs.getString(16), DefaultLocale.userDateTime(rs.getTimestamp(17)),
+                StringPool.dedup(rs.getString(18)), DefaultLocale.userDateTime(rs.getTimestamp(19)),
+                StringPool.dedup(rs.getString(20)), division));
+        User user = User.cache(rs.getInt(25), rs.getString(26));
+        Contact contact = Contact.cache(rs.getInt(27), rs.getString(28), rs.getString(29));
+        return new Appointment(rs.getInt(1), rs.getString(2), rs.getString(3), StringPool.dedup(rs.getString(4)),
+                StringPool.dedup(rs.getString(5)), DefaultLocale.userDateTime(rs.getTimestamp(6)),
+                DefaultLocale.userDateTime(rs.getTimestamp(7)), DefaultLocale.userDateTime(rs.getTimestamp(8)),
+                StringPool.dedup(rs.getString(9)), StringPool.dedup(rs.getString(11)),
+                DefaultLocale.userDateTime(rs.getTimestamp(10)), customer, user, contact);
+    }
+
+    //Appointments changed since the calendar last synced, see sync().
+    private static final DeltaSync<Appointment> sync = new DeltaSync<>("appointments", "Appointment_ID",
+            SELECT_JOINED + " WHERE a.Last_Update>=? OR a.Last_Update IS NULL ORDER BY a.Start;",
+            Appointment::fromJoinedRow, Appointment::appointmentID, false);
+
+    /**
+     * <p>Returns the appointments added, changed, or deleted since the last call.</p>
+     * <p>The first call only records where the table is at and returns nothing, so it should be made before loading the
+     * appointments it will keep up to date. The changes are also applied to the {@link AppointmentIndex} and
+     * {@link MonthCache}. See
+     * {@link DeltaSync}.</p>
+     * @return The changes, or null if the database couldn't be read.
+     */
+    public static DeltaSync.Delta<Appointment> sync() {
+        DeltaSync.Delta<Appointment> delta = sync.poll();
+        if (delta != null) {
+            AppointmentIndex.apply(delta);
+            MonthCache.apply(delta);
+        }
+        return delta;
     }
 
     /**
@@ -146,84 +295,44 @@ public record Appointment(int appointmentID, String title, String description,
      * @return The list of appointments.
      */
     public static ArrayList<Appointment> getAppointments(User user, ZonedDateTime start, ZonedDateTime end) {
-        try{
-            String query = "Select * FROM appointments";
-            if((user!=User.ALL&&user!=null)||start!=null||end!=null)
-            {
-                boolean conditions = false;
-                query+=" WHERE";
-                if(user!=User.ALL&&user!=null) {
-                    query += " User_ID="+user.id();
-                    conditions=true;
-                }
-                if(start!=null){
-                    query+=(conditions?" AND End>='":" End>='")+DefaultLocale.sqlDateTime(start)+"'";
-                    conditions=true;
-                }
-                if(end!=null){
-                    query+=(conditions?" AND Start<='":" Start<='")+DefaultLocale.sqlDateTime(end)+"'";
-                }
-            }
-            query+=" ORDER BY Start;";
-            ArrayList<Appointment> appointments = new ArrayList<>();
-            JDBC.process(query,(rs,row,c)-> appointments.add(
-                    new Appointment(rs.getInt(1),rs.getString(2),
-                            rs.getString(3), rs.getString(4), rs.getString(5),
-                            DefaultLocale.userDateTime(rs.getTimestamp(6)),
-                            DefaultLocale.userDateTime(rs.getTimestamp(7)),
-                            DefaultLocale.userDateTime(rs.getTimestamp(8)), rs.getString(9),
-                            rs.getString(11), DefaultLocale.userDateTime(rs.getTimestamp(10)),
-                            Customer.get(rs.getInt(12)), User.get(rs.getInt(13)),
-                            Contact.get(rs.getInt(14)))
-            ));
-            return appointments;
-        }catch(Exception e){
-            e.printStackTrace();
-        }
-        return null;
+        return getAppointments(user!=User.ALL&&user!=null?"a.User_ID":null, user!=null?user.id():-1, start, end);
     }
 
     /**
-     * Returns a list of appointments, with optional conditions. Used specifically for testing overlap in customer
-     * appointments.
-     * @param customer If not null, then returns only the appointments belonging to this customer.
+     * Runs the joined appointment query with optional conditions.
+     * @param idColumn If not null, the column to match against the ID.
+     * @param id The ID to match.
      * @param start If not null, returns only the appointments that end after this start time.
      * @param end If not null, returns only the appointments that start before this end time.
-     * @return The list of appointments.
+     * @return The list of appointments. Returns null if there was an error.
      */
-    public static ArrayList<Appointment> getAppointments(Customer customer, ZonedDateTime start, ZonedDateTime end) {
+    private static ArrayList<Appointment> getAppointments(String idColumn, int id, ZonedDateTime start, ZonedDateTime end) {
         try{
-            String query = "Select * FROM appointments";
-            if(customer!=null||start!=null||end!=null)
+            //Only the conditions in use are added, so there are at most 8 shapes of this query per ID column.
+            ArrayList<Object> vars = new ArrayList<>();
+            String query = SELECT_JOINED;
+            if(idColumn!=null||start!=null||end!=null)
             {
                 boolean conditions = false;
                 query+=" WHERE";
-                if(customer!=null) {
-                    query += " Customer_ID="+customer.id();
+                if(idColumn!=null) {
+                    query += " " + idColumn + "=?";
+                    vars.add(id);
                     conditions=true;
                 }
                 if(start!=null){
-                    query+=(conditions?" AND End>='":" End>='")+DefaultLocale.sqlDateTime(start)+"'";
+                    query+=(conditions?" AND a.End>=?":" a.End>=?");
+                    vars.add(start);
                     conditions=true;
                 }
                 if(end!=null){
-                    query+=(conditions?" AND Start<='":" Start<='")+DefaultLocale.sqlDateTime(end)+"'";
+                    query+=(conditions?" AND a.Start<=?":" a.Start<=?");
+                    vars.add(end);
                 }
             }
-            query+=" ORDER BY Start;";
+            query+=" ORDER BY a.Start;";
             ArrayList<Appointment> appointments = new ArrayList<>();
-            JDBC.process(query,(rs,row,c)->
-                appointments.add(
-                        new Appointment(rs.getInt(1),rs.getString(2),
-                                rs.getString(3), rs.getString(4), rs.getString(5),
-                                DefaultLocale.userDateTime(rs.getTimestamp(6)),
-                                DefaultLocale.userDateTime(rs.getTimestamp(7)),
-                                DefaultLocale.userDateTime(rs.getTimestamp(8)), rs.getString(9),
-                                rs.getString(11), DefaultLocale.userDateTime(rs.getTimestamp(10)),
-                                Customer.get(rs.getInt(12)), User.get(rs.getInt(13)),
-                                Contact.get(rs.getInt(14)))
-                )
-            );
+            JDBC.process(query,(rs,row,c)-> appointments.add(fromJoinedRow(rs)), vars.toArray());
             return appointments;
         }catch(Exception e){
             e.printStackTrace();
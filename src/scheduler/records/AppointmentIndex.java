@@ -0,0 +1,259 @@
+package scheduler.records;
+
+import scheduler.IntObjectMap;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>In-memory index of appointment times by customer, user, and contact, used to find double bookings without asking
+ * the database.</p>
+ * <p>Each customer, user, and contact has its appointments sorted by start time, along with the length of its longest
+ * appointment. Anything overlapping a range must start before the range ends, and can't start more than that length
+ * before the range starts, so a lookup is two binary searches and a scan of the appointments in between: O(log n + k).
+ * </p>
+ * <p>The index covers one continuous range of time, loaded a month at a time as checks ask for times outside it. It is
+ * kept current by {@link Appointment#createNew}, {@link Appointment#update}, {@link Appointment#cancelAppointment()},
+ * and the changes picked up by {@link Appointment#sync()}.</p>
+ */
+public final class AppointmentIndex {
+    private AppointmentIndex() {}
+
+    /**
+     * Which of the appointment's people an existing appointment collides on.
+     * @param appointment The existing appointment.
+     * @param customer True if it is for the same customer.
+     * @param user True if it is for the same user.
+     * @param contact True if it is for the same contact.
+     */
+    public record Collision(CompactAppointment appointment, boolean customer, boolean user, boolean contact) { }
+
+    /**
+     * Appointments for a single customer, user, or contact, sorted by start.
+     */
+    private static final class Intervals {
+        private final ArrayList<CompactAppointment> byStart = new ArrayList<>();
+        private long maxLength;
+
+        void add(CompactAppointment appointment) {
+            byStart.add(firstStartingAtOrAfter(appointment.start()), appointment);
+            maxLength = Math.max(maxLength, appointment.end() - appointment.start());
+        }
+
+        void remove(CompactAppointment appointment) {
+            for (int i = firstStartingAtOrAfter(appointment.start()); i < byStart.size(); i++) {
+                if (byStart.get(i).appointmentID() == appointment.appointmentID()) {
+                    byStart.remove(i);
+                    //Only the longest appointment leaving can shrink the bound, so that's the only time to rescan.
+                    if (appointment.end() - appointment.start() == maxLength) {
+                        maxLength = 0;
+                        for (CompactAppointment other : byStart)
+                            maxLength = Math.max(maxLength, other.end() - other.start());
+                    }
+                    return;
+                }
+                if (byStart.get(i).start() != appointment.start())
+                    return;
+            }
+        }
+
+        /**
+         * Adds every appointment overlapping the range to the list.
+         */
+        void overlapping(long start, long end, List<CompactAppointment> out) {
+            for (int i = firstStartingAtOrAfter(start - maxLength); i < byStart.size(); i++) {
+                CompactAppointment appointment = byStart.get(i);
+                if (appointment.start() >= end)
+                    break;
+                if (appointment.end() > start)
+                    out.add(appointment);
+            }
+        }
+
+        private int firstStartingAtOrAfter(long time) {
+            int low = 0, high = byStart.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (byStart.get(mid).start() < time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+    }
+
+    private static final IntObjectMap<CompactAppointment> byID = new IntObjectMap<>();
+    private static final IntObjectMap<Intervals> byCustomer = new IntObjectMap<>();
+    private static final IntObjectMap<Intervals> byUser = new IntObjectMap<>();
+    private static final IntObjectMap<Intervals> byContact = new IntObjectMap<>();
+    //The range of time loaded, in epoch seconds. Empty until the first check.
+    private static long loadedFrom = CompactAppointment.NONE, loadedTo = CompactAppointment.NONE;
+    //Loads run outside the lock. IDs put or removed while any are running keep their newer state when a load lands.
+    private static int loads;
+    private static final IntObjectMap<Boolean> touched = new IntObjectMap<>();
+
+    /**
+     * <p>Finds the appointments that overlap a time for the same customer, user, or contact.</p>
+     * <p>Loads the months around the time first if the index doesn't cover it yet, so call it off the JavaFX
+     * thread. The index isn't locked while the database is read, so changes can still be put and removed.</p>
+     * <p>Only sees other clients' appointments as of the last {@link Appointment#sync()}, so call that first when the
+     * answer has to be current.</p>
+     * @param customerID The customer's ID.
+     * @param userID The user's ID.
+     * @param contactID The contact's ID.
+     * @param start The start of the time to check.
+     * @param end The end of the time to check.
+     * @param ignoreID ID of the appointment being edited, which can't collide with itself. -1 for a new one.
+     * @return The colliding appointments in start order. Empty if there are none.
+     */
+    public static List<Collision> collisions(int customerID, int userID, int contactID, ZonedDateTime start,
+                                             ZonedDateTime end, int ignoreID) {
+        ensureLoaded(start, end);
+        long from = start.toEpochSecond(), to = end.toEpochSecond();
+        ArrayList<CompactAppointment> found = new ArrayList<>();
+        synchronized (AppointmentIndex.class) {
+            overlapping(byCustomer, customerID, from, to, found);
+            overlapping(byUser, userID, from, to, found);
+            overlapping(byContact, contactID, from, to, found);
+        }
+
+        IntObjectMap<Collision> collisions = new IntObjectMap<>(found.size());
+        for (CompactAppointment appointment : found) {
+            if (appointment.appointmentID() != ignoreID && !collisions.containsKey(appointment.appointmentID()))
+                collisions.put(appointment.appointmentID(), new Collision(appointment,
+                        appointment.customerID() == customerID, appointment.userID() == userID,
+                        appointment.contactID() == contactID));
+        }
+        List<Collision> list = collisions.values();
+        list.sort(Comparator.comparingLong(collision -> collision.appointment().start()));
+        return list;
+    }
+
+    /**
+     * Adds an appointment to the index, replacing its old times if it was already there.
+     * @param appointment The appointment.
+     */
+    public static synchronized void put(CompactAppointment appointment) {
+        touch(appointment.appointmentID());
+        index(appointment);
+    }
+
+    /**
+     * Removes an appointment from the index.
+     * @param appointmentID The appointment's ID.
+     */
+    public static synchronized void remove(int appointmentID) {
+        touch(appointmentID);
+        unindex(appointmentID);
+    }
+
+    /**
+     * Applies changes read by {@link Appointment#sync()}.
+     * @param delta The changes.
+     */
+    static synchronized void apply(DeltaSync.Delta<Appointment> delta) {
+        for (int id : delta.deleted())
+            remove(id);
+        for (Appointment appointment : delta.changed())
+            put(CompactAppointment.of(appointment));
+    }
+
+    /**
+     * Loads whatever part of the months around a time the index doesn't cover yet, along with any gap between them and
+     * the covered range, so the range stays continuous and later checks in the gap don't read again. The database is
+     * read without holding the lock.
+     * @param start The start of the time to cover.
+     * @param end The end of the time to cover.
+     */
+    private static void ensureLoaded(ZonedDateTime start, ZonedDateTime end) {
+        ZonedDateTime monthStart = start.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS);
+        ZonedDateTime monthEnd = end.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+        long from = monthStart.toEpochSecond(), to = monthEnd.toEpochSecond();
+        long coveredFrom, coveredTo;
+        synchronized (AppointmentIndex.class) {
+            if (loadedFrom != CompactAppointment.NONE && from >= loadedFrom && to <= loadedTo)
+                return;
+            //Nothing loaded yet reads as an empty range at the end of the months, so they are loaded as one piece.
+            coveredFrom = loadedFrom == CompactAppointment.NONE ? to : loadedFrom;
+            coveredTo = loadedTo == CompactAppointment.NONE ? to : loadedTo;
+            loads++;
+        }
+        try {
+            //Each piece runs up to the covered range, which only grows, so it still meets the range when it lands.
+            if (from < coveredFrom)
+                load(from, coveredFrom, start.getZone());
+            if (to > coveredTo)
+                load(coveredTo, to, end.getZone());
+        } finally {
+            synchronized (AppointmentIndex.class) {
+                if (--loads == 0)
+                    touched.clear();
+            }
+        }
+    }
+
+    /**
+     * Reads the appointments in a range that meets the covered range into the index, and widens the covered range to
+     * include it.
+     */
+    private static void load(long from, long to, ZoneId zone) {
+        ArrayList<CompactAppointment> appointments = CompactAppointment.getAppointments(null,
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(from), zone),
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(to), zone));
+        synchronized (AppointmentIndex.class) {
+            for (CompactAppointment appointment : appointments) {
+                if (!touched.containsKey(appointment.appointmentID()))
+                    index(appointment);
+            }
+            if (loadedFrom == CompactAppointment.NONE) {
+                loadedFrom = from;
+                loadedTo = to;
+            } else {
+                loadedFrom = Math.min(loadedFrom, from);
+                loadedTo = Math.max(loadedTo, to);
+            }
+        }
+    }
+
+    private static void touch(int appointmentID) {
+        if (loads > 0)
+            touched.put(appointmentID, Boolean.TRUE);
+    }
+
+    private static void index(CompactAppointment appointment) {
+        unindex(appointment.appointmentID());
+        byID.put(appointment.appointmentID(), appointment);
+        intervals(byCustomer, appointment.customerID()).add(appointment);
+        intervals(byUser, appointment.userID()).add(appointment);
+        intervals(byContact, appointment.contactID()).add(appointment);
+    }
+
+    private static void unindex(int appointmentID) {
+        CompactAppointment old = byID.remove(appointmentID);
+        if (old == null)
+            return;
+        intervals(byCustomer, old.customerID()).remove(old);
+        intervals(byUser, old.userID()).remove(old);
+        intervals(byContact, old.contactID()).remove(old);
+    }
+
+    private static void overlapping(IntObjectMap<Intervals> index, int id, long start, long end,
+                                    List<CompactAppointment> out) {
+        Intervals intervals = index.get(id);
+        if (intervals != null)
+            intervals.overlapping(start, end, out);
+    }
+
+    private static Intervals intervals(IntObjectMap<Intervals> index, int id) {
+        Intervals intervals = index.get(id);
+        if (intervals == null)
+            index.put(id, intervals = new Intervals());
+        return intervals;
+    }
+}
@@ -0,0 +1,141 @@
+package scheduler.records;
+
+import scheduler.DefaultLocale;
+import scheduler.JDBC;
+import scheduler.StringPool;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+
+/**
+ * <p>Small form of an {@link Appointment}, for holding many of them at once.</p>
+ * <p>Times are kept as epoch seconds instead of {@link ZonedDateTime}s, and the customer, user, and contact as their
+ * IDs. Reading one doesn't touch the record caches, so loading a year of appointments doesn't pull every customer in
+ * with them. Call {@link #toAppointment()} for the full record when a row is actually shown or edited.</p>
+ * @param appointmentID The Appointment's ID.
+ * @param title The Appointment's title.
+ * @param description The Appointment's description.
+ * @param location The Appointment's location.
+ * @param type The Appointment's type.
+ * @param start When the appointment starts, in epoch seconds.
+ * @param end When the appointment ends, in epoch seconds.
+ * @param creation_date When the appointment was created, in epoch seconds, or {@link #NONE}.
+ * @param created_by Who created the appointment.
+ * @param last_update When the appointment was last updated, in epoch seconds, or {@link #NONE}.
+ * @param last_updated_by Who last updated the appointment.
+ * @param customerID The customer's ID.
+ * @param userID The user's ID.
+ * @param contactID The contact's ID.
+ */
+public record CompactAppointment(int appointmentID, String title, String description, String location, String type,
+                                 long start, long end, long creation_date, String created_by, long last_update,
+                                 String last_updated_by, int customerID, int userID, int contactID) {
+    /**
+     * Stands in for a time that was null in the database.
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    private static final String SELECT = "SELECT Appointment_ID, Title, Description, Location, Type, Start, End, " +
+            "Create_Date, Created_By, Last_Update, Last_Updated_By, Customer_ID, User_ID, Contact_ID FROM appointments";
+
+    /**
+     * Builds the full appointment, looking up its customer, user, and contact in their caches.
+     * @return The appointment.
+     */
+    public Appointment toAppointment() {
+        return new Appointment(appointmentID, title, description, location, type, toDateTime(start), toDateTime(end),
+                toDateTime(creation_date), created_by, last_updated_by, toDateTime(last_update), customerID, userID,
+                contactID);
+    }
+
+    /**
+     * Makes the compact form of an appointment.
+     * @param appointment The appointment.
+     * @return The compact appointment.
+     */
+    public static CompactAppointment of(Appointment appointment) {
+        return new CompactAppointment(appointment.appointmentID(), appointment.title(), appointment.description(),
+                appointment.location(), appointment.type(), toEpoch(appointment.start()), toEpoch(appointment.end()),
+                toEpoch(appointment.creation_date()), appointment.created_by(), toEpoch(appointment.last_update()),
+                appointment.last_updated_by(), appointment.customerID(), appointment.userID(), appointment.contactID());
+    }
+
+    /**
+     * Returns when the appointment starts, in the user's time zone.
+     * @return The start time.
+     */
+    public ZonedDateTime startTime() {
+        return toDateTime(start);
+    }
+
+    /**
+     * Returns when the appointment ends, in the user's time zone.
+     * @return The end time.
+     */
+    public ZonedDateTime endTime() {
+        return toDateTime(end);
+    }
+
+    /**
+     * Returns appointments in compact form, with optional conditions. Reads only the appointments table, so nothing is
+     * joined or cached.
+     * @param user If not null, or {@link User#ALL}, then returns only the appointments belonging to this user.
+     * @param start If not null, returns only the appointments that end after this start time.
+     * @param end If not null, returns only the appointments that start before this end time.
+     * @return The appointments, ordered by start time.
+     */
+    public static ArrayList<CompactAppointment> getAppointments(User user, ZonedDateTime start, ZonedDateTime end) {
+        ArrayList<Object> vars = new ArrayList<>();
+        StringBuilder query = new StringBuilder(SELECT);
+        String join = " WHERE ";
+        if (user != null && user != User.ALL) {
+            query.append(join).append("User_ID=?");
+            vars.add(user.id());
+            join = " AND ";
+        }
+        if (start != null) {
+            query.append(join).append("End>=?");
+            vars.add(start);
+            join = " AND ";
+        }
+        if (end != null) {
+            query.append(join).append("Start<=?");
+            vars.add(end);
+        }
+        query.append(" ORDER BY Start;");
+
+        ArrayList<CompactAppointment> appointments = new ArrayList<>();
+        JDBC.processStreaming(query.toString(), (rs, row) -> appointments.add(fromRow(rs)), vars.toArray());
+        return appointments;
+    }
+
+    /**
+     * Builds a compact appointment from a row of {@link #SELECT}. Repeated strings go through the {@link StringPool}.
+     * @param rs The result set, on the row to read.
+     * @return The compact appointment.
+     * @throws SQLException Thrown if the row could not be read.
+     */
+    private static CompactAppointment fromRow(ResultSet rs) throws SQLException {
+        return new CompactAppointment(rs.getInt(1), rs.getString(2), rs.getString(3),
+                StringPool.dedup(rs.getString(4)), StringPool.dedup(rs.getString(5)), toEpoch(rs.getTimestamp(6)),
+                toEpoch(rs.getTimestamp(7)), toEpoch(rs.getTimestamp(8)), StringPool.dedup(rs.getString(9)),
+                toEpoch(rs.getTimestamp(10)), StringPool.dedup(rs.getString(11)), rs.getInt(12), rs.getInt(13),
+                rs.getInt(14));
+    }
+
+    private static long toEpoch(Timestamp time) {
+        return time == null ? NONE : Math.floorDiv(time.getTime(), 1000);
+    }
+
+    private static long toEpoch(ZonedDateTime time) {
+        return time == null ? NONE : time.toEpochSecond();
+    }
+
+    private static ZonedDateTime toDateTime(long epochSecond) {
+        return epochSecond == NONE ? null : Instant.ofEpochSecond(epochSecond).atZone(DefaultLocale.zone);
+    }
+}
@@ -1,18 +1,21 @@
 package scheduler.records;
 
+import scheduler.IntObjectMap;
 import scheduler.JDBC;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Objects;
+import java.util.function.Function;
 
 /**
  * Holds records for contacts and functions related to them.
  * @author Ken Butler
  */
 public record Contact(int id, String name, String email) {
-    private static final HashMap<Integer, Contact> contacts = new HashMap<>();
+    private static final RecordCache<Contact> contacts = new RecordCache<>("contacts", 10_000, 0, 30);
 
     /**
      * Returns a single contact via ID.
@@ -22,14 +25,31 @@ public record Contact(int id, String name, String email) {
     public static Contact get(int contact_id) {
         if(contact_id<0)
             return null;
-        if(contacts.containsKey(contact_id))
-            return contacts.get(contact_id);
-        ResultSet rs = JDBC.getResults("SELECT Contact_Name, Email from contacts WHERE Contact_ID="+contact_id+";");
+        return contacts.get(contact_id, Contact::load);
+    }
+
+    /**
+     * Returns a contact if it is cached, without querying the database, so it is safe on the JavaFX thread.
+     * @param contact_id The Contact's ID.
+     * @return The Contact, or null if it isn't cached.
+     */
+    public static Contact getIfCached(int contact_id) {
+        if(contact_id<0)
+            return null;
+        return contacts.getIfPresent(contact_id);
+    }
+
+    /**
+     * Loads a contact from the database.
+     * @param contact_id The Contact's ID.
+     * @return The Contact, or null if not found.
+     */
+    private static Contact load(int contact_id) {
+        ResultSet rs = JDBC.getResults("SELECT Contact_Name, Email from contacts WHERE Contact_ID=?;", contact_id);
         if(rs!=null){
             try {
                 if (rs.next()) {
                     Contact contact = new Contact(contact_id, rs.getString(1), rs.getString(2));
-                    contacts.put(contact_id, contact);
                     return contact;
                 }
             }catch(SQLException ignored){}
@@ -37,17 +57,71 @@ public record Contact(int id, String name, String email) {
         return null;
     }
 
+    /**
+     * Caches a contact built from a row that was already read, replacing the cached one if it has changed.
+     * @param id The Contact's ID.
+     * @param name The Contact's name.
+     * @param email The Contact's email.
+     * @return The cached Contact.
+     */
+    static Contact cache(int id, String name, String email) {
+        return contacts.merge(id, new Contact(id, name, email), (cached, read) ->
+                Objects.equals(cached.name, read.name) && Objects.equals(cached.email, read.email) ? cached : read);
+    }
+
+    /**
+     * Drops cached contacts that weren't in a full read of the table, such as ones deleted since they were cached.
+     * @param ids The ID of every contact read.
+     */
+    static void retainAll(IntObjectMap<?> ids) {
+        contacts.retainAll(ids);
+    }
+
     /**
      * Returns a list of all contacts
      * @return The list of contacts.
      */
     public static Collection<Contact> getContacts() {
-        JDBC.process("SELECT Contact_ID, Contact_Name, Email from contacts",(rs,row,count)->{
-            if(!contacts.containsKey(rs.getInt(1)))
-                contacts.put(rs.getInt(1),new Contact(rs.getInt(1), rs.getString(2),
-                        rs.getString(3)));
-        });
-        return contacts.values();
+        ArrayList<Contact> list = new ArrayList<>();
+        JDBC.process("SELECT Contact_ID, Contact_Name, Email from contacts",(rs,row,count)->
+            list.add(cache(rs.getInt(1), rs.getString(2), rs.getString(3)))
+        );
+        return list;
+    }
+
+    /**
+     * Creates a new contact and returns its record.
+     * @param name The Contact's name.
+     * @param email The Contact's email.
+     * @return The new contact. Will return null if there was an error.
+     */
+    public static Contact createNew(String name, String email) {
+        int id = JDBC.insert("INSERT INTO contacts (Contact_Name, Email) VALUES (?, ?);", name, email);
+        if(id < 0)
+            return null;
+        Contact contact = new Contact(id, name, email);
+        contacts.put(id, contact);
+        return contact;
+    }
+
+    /**
+     * Adds the insert for a new contact to a batch, so it is saved in the same round trip as the batch's other rows.
+     * @param batch The batch. Is set to return generated keys.
+     * @param name The Contact's name.
+     * @param email The Contact's email.
+     * @return Reads the new contact from the batch's result, once it has run. Gives null if its insert generated no key.
+     */
+    public static Function<JDBC.BatchResult, Contact> createNew(JDBC.Batch batch, String name, String email) {
+        int row = batch.size();
+        batch.returnGeneratedKeys().add("INSERT INTO contacts (Contact_Name, Email) VALUES (?, ?);", name, email);
+        return result -> {
+            int id = (int) result.generatedKeys()[row];
+            if(id < 0)
+                return null;
+            Contact contact = new Contact(id, name, email);
+            contacts.put(id, contact);
+            return contact;
+        };
     }
 
     /**
@@ -78,7 +152,7 @@ public record Contact(int id, String name, String email) {
      * @param callback Function to callback when contact is deleted.
      */
     public void delete(Runnable callback) {
-        if(JDBC.execute("DELETE FROM contacts WHERE Contact_ID="+id)) {
+        if(JDBC.execute("DELETE FROM contacts WHERE Contact_ID=?;", id)) {
             contacts.remove(id);
             if(callback!=null)
                 callback.run();
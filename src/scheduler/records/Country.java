@@ -1,18 +1,19 @@
 package scheduler.records;
 
+import scheduler.IntObjectMap;
 import scheduler.JDBC;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 
 /**
  * Holds records for Countries and functions related to them.
  * @author Ken Butler
  */
 public record Country(int id, String name) {
-    private static final HashMap<Integer, Country> countries = new HashMap<>();
+    private static final RecordCache<Country> countries = new RecordCache<>("countries", 1_000, 0, 30);
 
     /**
      * Returns a country by its ID. Returns null if not found.
@@ -20,14 +21,20 @@ public record Country(int id, String name) {
      * @return The Country. Returns null if country is not found.
      */
     public static Country get(int id){
-        if(countries.containsKey(id))
-            return countries.get(id);
-        ResultSet rs = JDBC.getResults("SELECT Country from countries WHERE Country_ID="+id+";");
+        return countries.get(id, Country::load);
+    }
+
+    /**
+     * Loads a country from the database.
+     * @param id The Country's ID.
+     * @return The Country, or null if not found.
+     */
+    private static Country load(int id) {
+        ResultSet rs = JDBC.getResults("SELECT Country from countries WHERE Country_ID=?;", id);
         if(rs!=null){
             try {
                 if (rs.next()) {
                     Country country = new Country(id, rs.getString(1));
-                    countries.put(id, country);
                     return country;
                 }
             }catch(SQLException ignored){}
@@ -35,17 +42,34 @@ public record Country(int id, String name) {
         return null;
     }
 
+    /**
+     * Caches a country built from a row that was already read, replacing the cached one if it has changed.
+     * @param id The Country's ID.
+     * @param name The Country's name.
+     * @return The cached Country.
+     */
+    static Country cache(int id, String name) {
+        return countries.merge(id, new Country(id, name), (cached, read) -> cached.equals(read) ? cached : read);
+    }
+
+    /**
+     * Drops cached countries that weren't in a full read of the table, such as ones deleted since they were cached.
+     * @param ids The ID of every country read.
+     */
+    static void retainAll(IntObjectMap<?> ids) {
+        countries.retainAll(ids);
+    }
+
     /**
      * Returns a list of all countries, collected from the database.
      * @return The list of all countries.
      */
     public static Collection<Country> getCountries() {
-        JDBC.process("SELECT Country_ID, Country from countries", (rs, row, count)->{
-            if(!countries.containsKey(rs.getInt(1))){
-                countries.put(rs.getInt(1),new Country(rs.getInt(1),rs.getString(2)));
-            }
-        });
-        return countries.values();
+        ArrayList<Country> list = new ArrayList<>();
+        JDBC.process("SELECT Country_ID, Country from countries", (rs, row, count)->
+            list.add(cache(rs.getInt(1),rs.getString(2)))
+        );
+        return list;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package scheduler.records;
 
 import scheduler.DefaultLocale;
+import scheduler.IntObjectMap;
 import scheduler.JDBC;
 import scheduler.controllers.CalendarController;
 import scheduler.elements.AlertBox;
@@ -9,18 +10,31 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.function.Function;
 
 /**
- * Holds records for Customers and functions related to them.
+ * <p>Holds records for Customers and functions related to them.</p>
+ * <p>Lookups by ID go through a cache capped at <code>scheduler.cache.customers.maxSize</code> records. The customer
+ * list is different: {@link #getCustomers()} keeps every customer in memory, uncapped, so the Customers table and
+ * choice boxes can be refreshed from the rows changed since the last call instead of reading the whole table again.
+ * That copy costs one reference per customer on top of the records, which are shared with the cache where both hold
+ * them. It is kept in step with {@link #update}, {@link #createNew}, and {@link #delete} as well as the delta polls.</p>
  * @author Ken Butler
  */
 public record Customer(int id, String name, String address, String postal_code, String phone_number,
                        ZonedDateTime create_date, String created_by, ZonedDateTime last_update, String last_updated_by,
                        Divisions division) {
-    //Holds all known Customers so we don't have to keep getting them from the database.
-    private static final HashMap<Integer, Customer> customers = new HashMap<>();
+    //Holds recently used Customers so we don't have to keep getting them from the database.
+    private static final RecordCache<Customer> customers = new RecordCache<>("customers", 10_000, 0, 30);
+    //Every customer, kept up to date from the rows that changed since the last call to getCustomers() and by this
+    //client's own changes. Deliberately uncapped, see the class comment. Guarded by synchronizing on it.
+    private static final DeltaSync<Customer> sync = new DeltaSync<>("customers", "Customer_ID",
+            "SELECT * from customers WHERE Last_Update>=? OR Last_Update IS NULL;", Customer::fromRow, Customer::id, true);
+    private static final IntObjectMap<Customer> all = new IntObjectMap<>();
 
     /**
      * Placeholder customer to add a Add New to the customer menu.
@@ -36,40 +50,110 @@ public record Customer(int id, String name, String address, String postal_code,
     public static Customer get(int customer_id) {
         if(customer_id<0)
             return null;
-        if(customers.containsKey(customer_id))
-            return customers.get(customer_id);
-        ResultSet rs = JDBC.getResults("SELECT * from customers WHERE Customer_ID="+customer_id+";");
+        return customers.get(customer_id, Customer::load);
+    }
+
+    /**
+     * Returns a customer if it is cached, without querying the database, so it is safe on the JavaFX thread.
+     * @param customer_id The customer's ID.
+     * @return The customer, or null if it isn't cached.
+     */
+    public static Customer getIfCached(int customer_id) {
+        if(customer_id<0)
+            return null;
+        return customers.getIfPresent(customer_id);
+    }
+
+    /**
+     * Loads a customer from the database.
+     * @param customer_id The Customer's ID.
+     * @return The Customer, or null if not found.
+     */
+    private static Customer load(int customer_id) {
+        ResultSet rs = JDBC.getResults("SELECT * from customers WHERE Customer_ID=?;", customer_id);
         if(rs!=null){
             try {
-                if (rs.next()) {
-                    Customer customer = new Customer(customer_id, rs.getString(2),
-                            rs.getString(3), rs.getString(4),rs.getString(5),
-                            DefaultLocale.userDateTime(rs.getTimestamp(6)),rs.getString(7),
-                            DefaultLocale.userDateTime(rs.getTimestamp(8)),rs.getString(9),
-                            Divisions.get(rs.getInt(10)));
-                    customers.put(customer_id, customer);
-                    return customer;
-                }
+                if (rs.next())
+                    return fromRow(rs);
             }catch(SQLException ignored){}
         }
         return null;
     }
 
     /**
-     * Returns a list of all customers.
-     * @return The List of Customers.
+     * Builds a customer from a row of <code>SELECT * from customers</code>.
+     * @param rs The result set, on the row to read.
+     * @return The Customer.
+     * @throws SQLException Thrown if the row could not be read.
+     */
+    private static Customer fromRow(ResultSet rs) throws SQLException {
+        return new Customer(rs.getInt(1), rs.getString(2),
+                rs.getString(3), rs.getString(4),rs.getString(5),
+                DefaultLocale.userDateTime(rs.getTimestamp(6)),rs.getString(7),
+                DefaultLocale.userDateTime(rs.getTimestamp(8)),rs.getString(9),
+                Divisions.get(rs.getInt(10)));
+    }
+
+    /**
+     * Caches a customer built from a row that was already read, replacing the cached one if it has changed.
+     * @param customer The customer from the row.
+     * @return The cached Customer.
+     */
+    static Customer cache(Customer customer) {
+        return customers.merge(customer.id, customer, (cached, read) -> sameContent(cached, read) ? cached : read);
+    }
+
+    /**
+     * Compares everything a customer shows. {@link #equals(Object)} only compares IDs, and Last_Update is left out,
+     * since it is written with whichever clock saved the row and can't tell which copy is newer.
+     */
+    private static boolean sameContent(Customer a, Customer b) {
+        return Objects.equals(a.name, b.name) && Objects.equals(a.address, b.address) &&
+                Objects.equals(a.postal_code, b.postal_code) && Objects.equals(a.phone_number, b.phone_number) &&
+                Objects.equals(a.last_updated_by, b.last_updated_by) &&
+                (a.division == null ? b.division == null : b.division != null && a.division.id() == b.division.id());
+    }
+
+    /**
+     * Drops cached customers that weren't in a full read of the table, such as ones deleted since they were cached.
+     * @param ids The ID of every customer read.
+     */
+    static void retainAll(IntObjectMap<?> ids) {
+        customers.retainAll(ids);
+    }
+
+    /**
+     * <p>Returns a list of all customers.</p>
+     * <p>The whole table is only read the first time. After that, only customers added, changed, or deleted since the
+     * last call are fetched and applied. See {@link DeltaSync}.</p>
+     * @return The List of Customers, ordered by ID.
      */
     public static Collection<Customer> getCustomers() {
-        JDBC.process("SELECT * from customers",(rs,row,count)->{
-            int i = rs.getInt(1);
-            if(!customers.containsKey(i)||customers.get(i).last_update.isBefore(DefaultLocale.userDateTime(rs.getTimestamp(8))))
-                customers.put(i,new Customer(i, rs.getString(2),
-                        rs.getString(3), rs.getString(4),rs.getString(5),
-                        DefaultLocale.userDateTime(rs.getTimestamp(6)),rs.getString(7),
-                        DefaultLocale.userDateTime(rs.getTimestamp(8)),rs.getString(9),
-                        Divisions.get(rs.getInt(10))));
-        });
-        return customers.values();
+        synchronized (all) {
+            DeltaSync.Delta<Customer> delta = sync.poll();
+            if (delta != null) {
+                for (Customer customer : delta.changed())
+                    all.put(customer.id, cache(customer));
+                for (int id : delta.deleted()) {
+                    all.remove(id);
+                    customers.remove(id);
+                }
+            }
+            ArrayList<Customer> list = new ArrayList<>(all.values());
+            list.sort(Comparator.comparingInt(Customer::id));
+            return list;
+        }
+    }
+
+    /**
+     * Puts a customer this client saved into the list returned by {@link #getCustomers()}, so it shows before the next
+     * poll picks it up.
+     * @param customer The saved customer.
+     */
+    private static void listed(Customer customer) {
+        synchronized (all) {
+            all.put(customer.id, customer);
+        }
     }
 
     /**
@@ -83,10 +167,13 @@ public record Customer(int id, String name, String address, String postal_code,
      */
     public Customer update(String name, String address, String postal_code, String phone_number, Divisions division) {
         if(!this.name.equals(name)||!this.address.equals(address)||!this.postal_code.equals(postal_code)||!this.phone_number.equals(phone_number)||!this.division.equals(division)) {
-            if (JDBC.execute("UPDATE customers SET Customer_Name=?, Address=?, Postal_Code=?, Phone=?, Last_Update=NOW(), Last_Updated_By=?, Division_ID=? WHERE Customer_ID=?;",
-                    name, address, postal_code, phone_number, User.current.username(), division.id(), this.id)) {
-                Customer c = new Customer(id, name, address, postal_code, phone_number, create_date, created_by, ZonedDateTime.now(), User.current.username(), division);
+            //The same time is written and cached, as in createNew.
+            ZonedDateTime now = ZonedDateTime.now();
+            if (JDBC.execute("UPDATE customers SET Customer_Name=?, Address=?, Postal_Code=?, Phone=?, Last_Update=?, Last_Updated_By=?, Division_ID=? WHERE Customer_ID=?;",
+                    name, address, postal_code, phone_number, now, User.current.username(), division.id(), this.id)) {
+                Customer c = new Customer(id, name, address, postal_code, phone_number, create_date, created_by, now, User.current.username(), division);
                 customers.put(id,c);
+                listed(c);
                 return c;
             }
             else
@@ -102,7 +189,7 @@ public record Customer(int id, String name, String address, String postal_code,
      *                 are deleted.
      */
     public void delete(Runnable callback){
-        ResultSet rs = JDBC.getResults("SELECT Count(Appointment_ID) FROM appointments WHERE Customer_ID="+id+";");
+        ResultSet rs = JDBC.getResults("SELECT Count(Appointment_ID) FROM appointments WHERE Customer_ID=?;", id);
         try{
             if(rs!=null) {
                 if (rs.next()) {
@@ -110,7 +197,7 @@ public record Customer(int id, String name, String address, String postal_code,
                     StringBuilder builder = new StringBuilder(DefaultLocale.translate(count>0?"delete_confirmation_appointments":"delete_confirmation").replace("%1%",name).replace("%2%",String.valueOf(count)));
                     if(count>0){
                         try{
-                            ResultSet set = JDBC.getResults("SELECT Appointment_ID, Title, Type, Start FROM appointments WHERE Customer_ID="+id+";");
+                            ResultSet set = JDBC.getResults("SELECT Appointment_ID, Title, Type, Start FROM appointments WHERE Customer_ID=?;", id);
                             if(set!=null) {
                                 DateTimeFormatter dtf = DateTimeFormatter.ofPattern("MM/dd/yyyy");
                                 while (set.next()) {
@@ -123,13 +210,19 @@ public record Customer(int id, String name, String address, String postal_code,
                         }catch(SQLException ignored){}
                     }
                     AlertBox.show(DefaultLocale.translate(count>0?"warning":"confirmation"), builder.toString(),()->{
-                        if(count <= 0 || JDBC.execute("DELETE FROM appointments WHERE Customer_ID=" + id + ";")) {
-                            if(count>0) CalendarController.INSTANCE.refresh_appointments();
-                            if (JDBC.execute("DELETE FROM customers WHERE Customer_ID=" + id + ";")) {
-                                customers.remove(id);
-                                if(callback!=null)
-                                    callback.run();
+                        //Delete the appointments and the customer together, so a failure can't leave one without the other.
+                        JDBC.BatchResult result = JDBC.batch()
+                                .add("DELETE FROM appointments WHERE Customer_ID=?;", id)
+                                .add("DELETE FROM customers WHERE Customer_ID=?;", id)
+                                .execute();
+                        if(result != null) {
+                            if(count>0) CalendarController.INSTANCE.sync_appointments();
+                            customers.remove(id);
+                            synchronized (all) {
+                                all.remove(id);
                             }
+                            if(callback!=null)
+                                callback.run();
                         }
                     });
                 }
@@ -149,24 +242,50 @@ public record Customer(int id, String name, String address, String postal_code,
     public static Customer createNew(String name, String address, String postal_code, String phone_number, Divisions division) {
         if(User.current==null)return null;
 
-        if(JDBC.execute("INSERT INTO customers (Customer_Name, Address, Postal_Code, Phone, Create_Date, Created_By, Last_Update, Last_Updated_By, Division_ID) VALUES (?, ?, ?, ?, NOW(), ?, NOW(), ?, ?)",
-                name, address, postal_code, phone_number, User.current.username(), User.current.username(), division.id())) {
-            ResultSet set = JDBC.getResults("SELECT Customer_ID, Create_Date FROM customers WHERE Customer_ID=(SELECT MAX(Customer_ID) FROM customers WHERE Created_By=?);",User.current.username());
-            try {
-                if (set != null && set.next()) {
-                    int i = set.getInt(1);
-                    ZonedDateTime time = set.getTimestamp(2).toLocalDateTime().atZone(DefaultLocale.zone);
-                    Customer c = new Customer(i,name,address,postal_code,phone_number,time,User.current.username(), time, User.current.username(), division);
-                    customers.put(i,c);
-                    return c;
-                }
-            }
-            catch(SQLException ignored){}
+        ZonedDateTime now = ZonedDateTime.now();
+        int id = JDBC.insert("INSERT INTO customers (Customer_Name, Address, Postal_Code, Phone, Create_Date, Created_By, Last_Update, Last_Updated_By, Division_ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                name, address, postal_code, phone_number, now, User.current.username(), now, User.current.username(), division.id());
+        if(id >= 0) {
+            Customer c = new Customer(id,name,address,postal_code,phone_number,now,User.current.username(), now, User.current.username(), division);
+            customers.put(id,c);
+            listed(c);
+            return c;
         }
 
         return null;
     }
 
+    /**
+     * Adds the insert for a new customer to a batch, so it is saved in the same round trip as the batch's other rows.
+     * @param batch The batch. Is set to return generated keys.
+     * @param name The Customer's Name.
+     * @param address The Customer's Address.
+     * @param postal_code The Customer's Postal Code.
+     * @param phone_number The Customer's Phone Number.
+     * @param division The Customer's {@link Divisions}.
+     * @return Reads the new customer from the batch's result, once it has run. Gives null if its insert generated no
+     * key. Null if no user is logged in, in which case nothing is added.
+     */
+    public static Function<JDBC.BatchResult, Customer> createNew(JDBC.Batch batch, String name, String address,
+                                                                 String postal_code, String phone_number, Divisions division) {
+        if(User.current==null)return null;
+
+        ZonedDateTime now = ZonedDateTime.now();
+        String username = User.current.username();
+        int row = batch.size();
+        batch.returnGeneratedKeys().add("INSERT INTO customers (Customer_Name, Address, Postal_Code, Phone, Create_Date, Created_By, Last_Update, Last_Updated_By, Division_ID) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                name, address, postal_code, phone_number, now, username, now, username, division.id());
+        return result -> {
+            int id = (int) result.generatedKeys()[row];
+            if(id < 0)
+                return null;
+            Customer c = new Customer(id,name,address,postal_code,phone_number,now,username, now, username, division);
+            customers.put(id,c);
+            listed(c);
+            return c;
+        };
+    }
+
     /**
      * Overridden to correctly display information in a TableView.
      * @return Customer formatted to display as 'Name'.
@@ -0,0 +1,191 @@
+package scheduler.records;
+
+import scheduler.IntObjectMap;
+import scheduler.JDBC;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>Tracks what changed in a table since it was last checked, so callers can update what they hold instead of
+ * reloading the whole table.</p>
+ * <p>Keeps the highest <code>Last_Update</code> seen and the IDs of every row known to exist. Each {@link #poll()}
+ * asks for the table's row count and highest <code>Last_Update</code>, then reads the rows updated since a little before
+ * the watermark. Deleted rows leave no trace to query by time, so the ID list is only read when the row count doesn't
+ * add up, and compared against the known IDs.</p>
+ * <p><code>Last_Update</code> is written with the writing client's clock and only to the second, so a row can change
+ * without moving the highest <code>Last_Update</code>: when two saves land in the same second, or when a client's clock
+ * is behind. The rows from the last <code>scheduler.sync.skewSeconds</code>, 300 by default, are therefore read on every
+ * poll, and a hash of each of their columns is kept. Only rows whose hash differs from the last poll are returned, so
+ * rows that didn't change aren't applied again.</p>
+ * @param <T> The record type.
+ */
+public final class DeltaSync<T> {
+    private static final long skewMillis = Long.getLong("scheduler.sync.skewSeconds", 300) * 1000;
+
+    private final String table, idColumn, changedQuery;
+    private final JDBC.RowMapper<T> mapper;
+    private final ToIntFunction<T> id;
+    private final boolean loadAllFirst;
+
+    private final IntObjectMap<Boolean> known = new IntObjectMap<>();
+    //Column hashes of the rows read by the last poll, to tell which re-read rows actually changed.
+    private IntObjectMap<Integer> recent = new IntObjectMap<>();
+    private Timestamp watermark;
+    private boolean started;
+
+    /**
+     * Rows that changed since the last poll.
+     * @param changed Rows that were added or updated.
+     * @param deleted IDs of rows that were deleted.
+     * @param <T> The record type.
+     */
+    public record Delta<T>(List<T> changed, int[] deleted) {
+        /**
+         * Checks whether anything changed.
+         * @return True if there are no changed or deleted rows.
+         */
+        public boolean isEmpty() {
+            return changed.isEmpty() && deleted.length == 0;
+        }
+    }
+
+    /**
+     * Creates a tracker for a table. Nothing is read until the first {@link #poll()}.
+     * @param table The table name.
+     * @param idColumn The table's ID column.
+     * @param changedQuery Query for the rows to return, with a single <code>?</code> for the time to return rows
+     *                     updated at or after.
+     * @param mapper Turns a row of the changed query into a record.
+     * @param id Returns a record's ID.
+     * @param loadAllFirst If true, the first poll returns every row as changed. Otherwise it only reads the IDs and
+     *                     watermark, and returns nothing.
+     */
+    DeltaSync(String table, String idColumn, String changedQuery, JDBC.RowMapper<T> mapper, ToIntFunction<T> id,
+              boolean loadAllFirst) {
+        this.table = table;
+        this.idColumn = idColumn;
+        this.changedQuery = changedQuery;
+        this.mapper = mapper;
+        this.id = id;
+        this.loadAllFirst = loadAllFirst;
+    }
+
+    /**
+     * Returns the rows changed since the last poll. Runs queries, so call it off the JavaFX thread.
+     * @return The changes, or null if the database couldn't be read. A failed poll is retried in full next time.
+     */
+    public synchronized Delta<T> poll() {
+        ResultSet rs = JDBC.getResults("SELECT COUNT(*), MAX(Last_Update) FROM " + table + ";");
+        long count;
+        Timestamp latest;
+        try {
+            if (rs == null || !rs.next())
+                return null;
+            count = rs.getLong(1);
+            latest = rs.getTimestamp(2);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        if (!started && !loadAllFirst) {
+            int[] ids = loadIDs();
+            if (ids == null)
+                return null;
+            for (int i : ids)
+                known.put(i, Boolean.TRUE);
+            watermark = latest;
+            started = true;
+            return new Delta<>(List.of(), new int[0]);
+        }
+
+        //Everything on the first poll, otherwise just what was updated near or after the watermark.
+        Timestamp since = !started || watermark == null ? new Timestamp(0) :
+                new Timestamp(watermark.getTime() - skewMillis);
+        ArrayList<T> changed = new ArrayList<>();
+        IntObjectMap<Integer> seen = new IntObjectMap<>();
+        ResultSet rows = JDBC.getResults(changedQuery, since);
+        if (rows == null)
+            return null;
+        try {
+            int columns = rows.getMetaData().getColumnCount();
+            while (rows.next()) {
+                T row = mapper.map(rows);
+                int rowID = id.applyAsInt(row);
+                int hash = 1;
+                for (int i = 1; i <= columns; i++)
+                    hash = 31 * hash + Objects.hashCode(rows.getObject(i));
+                seen.put(rowID, hash);
+                Integer before = recent.get(rowID);
+                if (before == null || before != hash)
+                    changed.add(row);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        int added = 0;
+        for (int i : seen.keys()) {
+            if (!known.containsKey(i))
+                added++;
+        }
+
+        //Every new row is in the changed rows, so if the count still doesn't add up, some known rows are gone.
+        int[] deleted = new int[0];
+        if (known.size() + added != count) {
+            int[] ids = loadIDs();
+            if (ids == null)
+                return null;
+            IntObjectMap<Boolean> current = new IntObjectMap<>(ids.length);
+            for (int i : ids)
+                current.put(i, Boolean.TRUE);
+            int[] knownIDs = known.keys();
+            int n = 0;
+            for (int i : knownIDs) {
+                if (!current.containsKey(i))
+                    knownIDs[n++] = i;
+            }
+            deleted = Arrays.copyOf(knownIDs, n);
+            for (int i : deleted)
+                known.remove(i);
+        }
+        for (int i : seen.keys())
+            known.put(i, Boolean.TRUE);
+
+        recent = seen;
+        watermark = latest;
+        started = true;
+        return new Delta<>(changed, deleted);
+    }
+
+    /**
+     * Reads every ID in the table.
+     * @return The IDs, or null if they couldn't be read.
+     */
+    private int[] loadIDs() {
+        ResultSet rs = JDBC.getResults("SELECT " + idColumn + " FROM " + table + ";");
+        if (rs == null)
+            return null;
+        try {
+            int[] ids = new int[Math.max(16, known.size())];
+            int n = 0;
+            while (rs.next()) {
+                if (n == ids.length)
+                    ids = Arrays.copyOf(ids, n * 2);
+                ids[n++] = rs.getInt(1);
+            }
+            return Arrays.copyOf(ids, n);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -1,18 +1,44 @@
 package scheduler.records;
 
+import scheduler.DataAccess;
+import scheduler.IntObjectMap;
 import scheduler.JDBC;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Holds records for First Level Divisions and functions related to them.
  * @author Ken Butler
  */
 public record Divisions(int id, String name, Country country) {
-    private static final HashMap<Integer, Divisions> divisions = new HashMap<>();
+    private static final RecordCache<Divisions> divisions = new RecordCache<>("divisions", 5_000, 0, 30);
+    private static final long indexCheckNanos = Long.getLong("scheduler.divisions.checkSeconds", 60) * 1_000_000_000L;
+
+    /**
+     * Identifies the state of the divisions table, so the index is only rebuilt after it changes.
+     * @param count Number of divisions.
+     * @param lastUpdate Latest Last_Update of any division.
+     */
+    private record Version(long count, Timestamp lastUpdate) { }
+
+    /**
+     * Divisions grouped by their country's ID.
+     * @param version The table state the index was built from.
+     * @param byCountry Immutable division lists by country ID.
+     * @param checkedAt When the version was last checked, from {@link System#nanoTime()}.
+     */
+    private record Index(Version version, IntObjectMap<List<Divisions>> byCountry, long checkedAt) { }
+
+    private static volatile Index index;
+    //True while a background check of the table is running, so only one runs at a time.
+    private static final AtomicBoolean checking = new AtomicBoolean();
 
     /**
      * Returns a division by ID.
@@ -22,15 +48,21 @@ public record Divisions(int id, String name, Country country) {
     public static Divisions get(int division_id){
         if(division_id<0)
             return null;
-        if(divisions.containsKey(division_id))
-            return divisions.get(division_id);
-        ResultSet rs = JDBC.getResults("SELECT Division, Country_ID from first_level_divisions WHERE Division_ID="+division_id+";");
+        return divisions.get(division_id, Divisions::load);
+    }
+
+    /**
+     * Loads a division from the database.
+     * @param division_id The Division's ID.
+     * @return The Division, or null if not found.
+     */
+    private static Divisions load(int division_id) {
+        ResultSet rs = JDBC.getResults("SELECT Division, Country_ID from first_level_divisions WHERE Division_ID=?;", division_id);
         if(rs!=null){
             try {
                 if (rs.next()) {
                     Divisions division = new Divisions(division_id, rs.getString(1),
                             Country.get(rs.getInt(2)));
-                    divisions.put(division_id, division);
                     return division;
                 }
             }catch(SQLException ignored){}
@@ -38,27 +70,134 @@ public record Divisions(int id, String name, Country country) {
         return null;
     }
 
+    /**
+     * Caches a division built from a row that was already read, replacing the cached one if it has changed.
+     * @param id The Division's ID.
+     * @param name The Division's name.
+     * @param country The Division's {@link Country}.
+     * @return The cached Division.
+     */
+    static Divisions cache(int id, String name, Country country) {
+        return divisions.merge(id, new Divisions(id, name, country), (cached, read) -> cached.equals(read) ? cached : read);
+    }
+
+    /**
+     * Drops cached divisions that weren't in a full read of the table, such as ones deleted since they were cached.
+     * @param ids The ID of every division read.
+     */
+    static void retainAll(IntObjectMap<?> ids) {
+        divisions.retainAll(ids);
+    }
+
     /**
      * Returns all divisions from the database.
      * @return The list of Divisions.
      */
     public static Collection<Divisions> getDivisions(){
-        JDBC.process("SELECT Division_ID, Division, Country_ID from first_level_divisions", (rs, row, count)->{
-            if(!divisions.containsKey(rs.getInt(1))){
-                divisions.put(rs.getInt(1),new Divisions(rs.getInt(1),rs.getString(2),Country.get(rs.getInt(3))));
-            }
-        });
-        return divisions.values();
+        ArrayList<Divisions> list = new ArrayList<>();
+        JDBC.process("SELECT Division_ID, Division, Country_ID from first_level_divisions", (rs, row, count)->
+            list.add(cache(rs.getInt(1),rs.getString(2),Country.get(rs.getInt(3))))
+        );
+        return list;
     }
 
     /**
      * <p>Returns divisions belonging to a specific {@link Country}.</p>
-     * <p>Lambda is used to filter the divisions and compare them to the country.</p>
+     * <p>Served from an index of divisions by country, built from a single load of the table. The index is rebuilt
+     * only if the table has changed, which is checked at most once every <code>scheduler.divisions.checkSeconds</code>
+     * (60 by default). The check and the rebuild run in the background, so this never queries the database and is
+     * safe on the JavaFX thread; the current index is served until a new one is ready.</p>
      * @param country The {@link Country} to filter Divisions by.
-     * @return The list of Divisions belonging to the {@link Country}.
+     * @return The unmodifiable list of Divisions belonging to the {@link Country}.
      */
     public static Collection<Divisions> getDivisions(Country country){
-        return getDivisions().stream().filter(d->d.country==country).toList();
+        if(country==null)
+            return List.of();
+        List<Divisions> list = index().byCountry().get(country.id());
+        return list!=null?list:List.of();
+    }
+
+    /**
+     * Returns the index of divisions by country, starting a background check of the table if it is due. Until the first
+     * check finishes, the index is built from the divisions already cached by the reference data load.
+     * @return The index.
+     */
+    private static Index index(){
+        Index current = index;
+        long now = System.nanoTime();
+        if(current==null){
+            synchronized (Divisions.class){
+                current = index;
+                if(current==null)
+                    index = current = group(null, divisions.values(), now - indexCheckNanos);
+            }
+        }
+        if(now-current.checkedAt()>=indexCheckNanos && checking.compareAndSet(false, true))
+            DataAccess.supply(Divisions::checkIndex).whenComplete((ignored, e) -> checking.set(false));
+        return current;
+    }
+
+    /**
+     * Checks whether the table changed since the index was built, and rebuilds the index if it did. Runs in the
+     * background. If the database can't be reached the current index is kept and checked again after the usual wait,
+     * rather than on every call.
+     * @return Nothing; returned so it can be passed to {@link DataAccess#supply}.
+     */
+    private static Void checkIndex(){
+        Index current = index;
+        Version version = loadVersion();
+        long now = System.nanoTime();
+        if(version==null || version.equals(current.version())){
+            index = new Index(current.version(), current.byCountry(), now);
+            return null;
+        }
+        Collection<Divisions> all = getDivisions();
+        //An empty read of a table that has rows means the load failed; keep what we have.
+        if(all.isEmpty() && version.count()>0)
+            index = new Index(current.version(), current.byCountry(), now);
+        else
+            index = group(version, all, now);
+        return null;
+    }
+
+    /**
+     * Reads the current state of the divisions table.
+     * @return The version, or null if it couldn't be read.
+     */
+    private static Version loadVersion(){
+        ResultSet rs = JDBC.getResults("SELECT COUNT(*), MAX(Last_Update) FROM first_level_divisions;");
+        if(rs!=null){
+            try {
+                if(rs.next())
+                    return new Version(rs.getLong(1), rs.getTimestamp(2));
+            }catch(SQLException ignored){}
+        }
+        return null;
+    }
+
+    /**
+     * Groups divisions by country.
+     * @param version The table state being indexed, or null if it hasn't been checked yet.
+     * @param all Every division.
+     * @param now The time the version was checked.
+     * @return The new index.
+     */
+    private static Index group(Version version, Collection<Divisions> all, long now){
+        IntObjectMap<ArrayList<Divisions>> grouped = new IntObjectMap<>();
+        for(Divisions division : all){
+            if(division.country==null)
+                continue;
+            ArrayList<Divisions> list = grouped.get(division.country.id());
+            if(list==null)
+                grouped.put(division.country.id(), list = new ArrayList<>());
+            list.add(division);
+        }
+        IntObjectMap<List<Divisions>> byCountry = new IntObjectMap<>(grouped.size());
+        grouped.forEach((countryID, list) -> {
+            list.sort(Comparator.comparingInt(Divisions::id));
+            byCountry.put(countryID, List.copyOf(list));
+        });
+        return new Index(version, byCountry, now);
     }
 
     @Override
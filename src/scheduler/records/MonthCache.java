@@ -0,0 +1,256 @@
+package scheduler.records;
+
+import scheduler.DataAccess;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Keeps the appointments of recently shown calendar months, so moving between months doesn't wait on the
+ * database.</p>
+ * <p>Each window is the range of days the Calendar View shows for one month and one viewed user, held in
+ * {@link CompactAppointment} form. The least recently used windows are dropped once there are more than
+ * <code>scheduler.monthCache.size</code>, 8 by default. Windows next to the one being shown can be loaded ahead of time
+ * with {@link #prefetch}, and a window that is asked for while it is still loading waits for that load rather than
+ * running its own.</p>
+ * <p>Windows are kept current by {@link Appointment#createNew}, {@link Appointment#update},
+ * {@link Appointment#cancelAppointment()}, and the changes picked up by {@link Appointment#sync()}. A load that
+ * overlaps one of those changes is returned but not kept, since it may have been read before the change.</p>
+ */
+public final class MonthCache {
+    private MonthCache() {}
+
+    private static final int maxSize = Integer.getInteger("scheduler.monthCache.size", 8);
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder sharedLoads = new LongAdder();
+    private static final LongAdder prefetches = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    /**
+     * Snapshot of the cache's counters.
+     * @param size Windows currently held.
+     * @param hits Windows found already loaded.
+     * @param misses Windows that had to be loaded when asked for.
+     * @param sharedLoads Windows asked for while a prefetch was still loading them.
+     * @param prefetches Windows loaded ahead of time.
+     * @param evictions Windows dropped to stay under the size limit.
+     */
+    public record Stats(int size, long hits, long misses, long sharedLoads, long prefetches, long evictions) {
+        /**
+         * Returns the fraction of requests that were answered without waiting on the database.
+         * @return The hit rate between 0 and 1.
+         */
+        public double hitRate() {
+            long total = hits + misses + sharedLoads;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("size=%d, hits=%d, misses=%d, shared=%d, hitRate=%.1f%%, prefetches=%d, evictions=%d",
+                    size, hits, misses, sharedLoads, hitRate() * 100, prefetches, evictions);
+        }
+    }
+
+    /**
+     * Identifies a window by the viewed user and its range, in epoch seconds.
+     */
+    private record Key(int userID, long start, long end) {
+        Key(User user, ZonedDateTime start, ZonedDateTime end) {
+            this(user.id(), start.toEpochSecond(), end.toEpochSecond());
+        }
+    }
+
+    /**
+     * Appointments for one window, sorted by start. Holds the same rows as
+     * {@link Appointment#getAppointments(User, ZonedDateTime, ZonedDateTime)} for its range.
+     */
+    private static final class Window {
+        private final Key key;
+        private final ArrayList<CompactAppointment> appointments;
+
+        Window(Key key, ArrayList<CompactAppointment> appointments) {
+            this.key = key;
+            this.appointments = appointments;
+        }
+
+        void remove(int appointmentID) {
+            appointments.removeIf(appointment -> appointment.appointmentID() == appointmentID);
+        }
+
+        void put(CompactAppointment appointment) {
+            remove(appointment.appointmentID());
+            if ((key.userID() != User.ALL.id() && appointment.userID() != key.userID()) ||
+                    appointment.end() < key.start() || appointment.start() > key.end())
+                return;
+            int i = appointments.size();
+            while (i > 0 && appointments.get(i - 1).start() > appointment.start())
+                i--;
+            appointments.add(i, appointment);
+        }
+    }
+
+    private static final LinkedHashMap<Key, Window> windows = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Window> eldest) {
+            if (size() <= maxSize)
+                return false;
+            evictions.increment();
+            return true;
+        }
+    };
+    private static final HashMap<Key, CompletableFuture<List<CompactAppointment>>> loading = new HashMap<>();
+    //Counts changes, so loads can tell whether one happened while they ran.
+    private static long changes;
+
+    /**
+     * Returns a window if it is already loaded. Doesn't touch the database, so it is safe on the JavaFX thread.
+     * @param user The viewed user, or {@link User#ALL}.
+     * @param start The start of the window.
+     * @param end The end of the window.
+     * @return The window's appointments in start order, or null if it isn't loaded.
+     */
+    public static synchronized List<CompactAppointment> getIfLoaded(User user, ZonedDateTime start, ZonedDateTime end) {
+        Window window = windows.get(new Key(user, start, end));
+        if (window == null)
+            return null;
+        hits.increment();
+        return List.copyOf(window.appointments);
+    }
+
+    /**
+     * Returns a window, loading it if it isn't loaded yet. Call it off the JavaFX thread.
+     * @param user The viewed user, or {@link User#ALL}.
+     * @param start The start of the window.
+     * @param end The end of the window.
+     * @return The window's appointments in start order, or null if they couldn't be read.
+     */
+    public static List<CompactAppointment> get(User user, ZonedDateTime start, ZonedDateTime end) {
+        return load(user, start, end, false);
+    }
+
+    /**
+     * Loads a window in the background, if it isn't loaded or loading already.
+     * @param user The viewed user, or {@link User#ALL}.
+     * @param start The start of the window.
+     * @param end The end of the window.
+     */
+    public static void prefetch(User user, ZonedDateTime start, ZonedDateTime end) {
+        Key key = new Key(user, start, end);
+        synchronized (MonthCache.class) {
+            if (windows.containsKey(key) || loading.containsKey(key))
+                return;
+        }
+        DataAccess.supply(() -> load(user, start, end, true));
+    }
+
+    /**
+     * Drops every window, so they are all read from the database again.
+     */
+    public static synchronized void clear() {
+        windows.clear();
+        changes++;
+    }
+
+    /**
+     * Returns the cache's counters.
+     * @return The statistics.
+     */
+    public static synchronized Stats stats() {
+        return new Stats(windows.size(), hits.sum(), misses.sum(), sharedLoads.sum(), prefetches.sum(),
+                evictions.sum());
+    }
+
+    /**
+     * Adds or moves an appointment in every window it belongs to.
+     * @param appointment The appointment.
+     */
+    static synchronized void put(CompactAppointment appointment) {
+        changes++;
+        for (Window window : windows.values())
+            window.put(appointment);
+    }
+
+    /**
+     * Removes an appointment from every window.
+     * @param appointmentID The appointment's ID.
+     */
+    static synchronized void remove(int appointmentID) {
+        changes++;
+        for (Window window : windows.values())
+            window.remove(appointmentID);
+    }
+
+    /**
+     * Applies changes read by {@link Appointment#sync()}.
+     * @param delta The changes.
+     */
+    static synchronized void apply(DeltaSync.Delta<Appointment> delta) {
+        if (delta.isEmpty())
+            return;
+        for (int id : delta.deleted())
+            remove(id);
+        for (Appointment appointment : delta.changed())
+            put(CompactAppointment.of(appointment));
+    }
+
+    /**
+     * Returns a window, joining a load already running for it or starting one.
+     * @param prefetch True if nobody is waiting on the window yet, which only counts toward the prefetches.
+     * @return The window's appointments, or null if they couldn't be read.
+     */
+    private static List<CompactAppointment> load(User user, ZonedDateTime start, ZonedDateTime end, boolean prefetch) {
+        Key key = new Key(user, start, end);
+        CompletableFuture<List<CompactAppointment>> shared, own = null;
+        long before;
+        synchronized (MonthCache.class) {
+            Window window = windows.get(key);
+            if (window != null) {
+                if (!prefetch)
+                    hits.increment();
+                return List.copyOf(window.appointments);
+            }
+            shared = loading.get(key);
+            if (shared == null)
+                loading.put(key, own = new CompletableFuture<>());
+            before = changes;
+        }
+
+        if (own == null) {
+            if (!prefetch)
+                sharedLoads.increment();
+            return shared.join();
+        }
+
+        (prefetch ? prefetches : misses).increment();
+        List<CompactAppointment> result = null;
+        try {
+            //The joined query also fills the customer, user, and contact caches the appointments will be shown with.
+            ArrayList<Appointment> appointments = Appointment.getAppointments(user, start, end);
+            if (appointments != null) {
+                ArrayList<CompactAppointment> compact = new ArrayList<>(appointments.size());
+                for (Appointment appointment : appointments)
+                    compact.add(CompactAppointment.of(appointment));
+                result = List.copyOf(compact);
+                synchronized (MonthCache.class) {
+                    if (changes == before)
+                        windows.put(key, new Window(key, compact));
+                }
+            }
+        } finally {
+            synchronized (MonthCache.class) {
+                loading.remove(key);
+            }
+            own.complete(result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,425 @@
+package scheduler.records;
+
+import scheduler.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+
+/**
+ * <p>Bounded cache of records by ID, shared by the record classes.</p>
+ * <p>Holds at most a set number of records, dropping the least recently used ones when full. Records can optionally
+ * expire after a while, so changes made by other users are picked up. IDs that were looked up and not found are
+ * remembered for a short time, so repeated lookups of a missing ID don't all go to the database.</p>
+ * <p>Holds one canonical record per ID, so other records should keep the ID and look the record up here rather than
+ * holding on to a copy.</p>
+ * <p>Safe to use from any thread. Records are kept in an {@link IntObjectMap} guarded by a {@link StampedLock}; reads
+ * are optimistic and only take the lock if a write raced them. When several threads miss on the same ID at once, only
+ * one of them loads it and the others wait for that load instead of running their own query. Eviction runs in batches
+ * once the cache goes a little over its cap, so the LRU order is approximate.</p>
+ * <p>Sizes and times can be changed with the <code>scheduler.cache.&lt;name&gt;.maxSize</code>,
+ * <code>.ttlSeconds</code>, and <code>.negativeTtlSeconds</code> system properties. A TTL of 0 never expires.</p>
+ * @param <V> The record type.
+ */
+public final class RecordCache<V> {
+    private static final List<RecordCache<?>> caches = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlNanos, negativeTtlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sharedLoads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * A cached record, or a remembered miss if the value is null.
+     */
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+        private volatile long lastAccess;
+
+        private Entry(V value, long expiresAt, long lastAccess) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.lastAccess = lastAccess;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt != 0 && now - expiresAt > 0;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final IntObjectMap<Entry<V>> entries = new IntObjectMap<>();
+    //Loads currently running, so concurrent misses on the same ID can share one. Guarded by the write lock.
+    private final IntObjectMap<CompletableFuture<V>> loading = new IntObjectMap<>();
+    //Logical clock for LRU order, cheaper than reading the time on every hit.
+    private final AtomicLong clock = new AtomicLong();
+
+    /**
+     * Snapshot of a cache's counters.
+     * @param name The cache's name.
+     * @param size Records currently held, including remembered misses.
+     * @param hits Lookups answered with a cached record.
+     * @param negativeHits Lookups answered with a remembered miss.
+     * @param misses Lookups that had to load from the database.
+     * @param sharedLoads Misses that waited on another thread's load of the same ID instead of loading it again.
+     * @param averageLoadMillis Average time taken by a load.
+     * @param evictions Records dropped to stay under the size cap.
+     * @param expirations Records dropped because they expired.
+     */
+    public record Stats(String name, int size, long hits, long negativeHits, long misses, long sharedLoads,
+                        double averageLoadMillis, long evictions, long expirations) {
+        /**
+         * Returns the fraction of lookups that didn't need the database.
+         * @return The hit rate between 0 and 1.
+         */
+        public double hitRate() {
+            long total = hits + negativeHits + misses;
+            return total == 0 ? 0 : (double) (hits + negativeHits) / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: size=%d, hits=%d, negativeHits=%d, misses=%d, sharedLoads=%d, hitRate=%.1f%%, " +
+                    "avgLoad=%.2fms, evictions=%d, expirations=%d", name, size, hits, negativeHits, misses, sharedLoads,
+                    hitRate() * 100, averageLoadMillis, evictions, expirations);
+        }
+    }
+
+    /**
+     * Creates a cache, reading its limits from system properties.
+     * @param name The cache's name, used for its system properties and statistics.
+     * @param maxSize The default most records to hold.
+     * @param ttlSeconds The default time a record is kept, 0 to keep until evicted.
+     * @param negativeTtlSeconds The default time a missing ID is remembered, 0 to not remember misses.
+     */
+    public RecordCache(String name, int maxSize, long ttlSeconds, long negativeTtlSeconds) {
+        this.name = name;
+        this.maxSize = Integer.getInteger("scheduler.cache." + name + ".maxSize", maxSize);
+        this.ttlNanos = Long.getLong("scheduler.cache." + name + ".ttlSeconds", ttlSeconds) * 1_000_000_000L;
+        this.negativeTtlNanos = Long.getLong("scheduler.cache." + name + ".negativeTtlSeconds", negativeTtlSeconds) * 1_000_000_000L;
+        if (this.maxSize < 1)
+            throw new IllegalArgumentException("Cache " + name + " must hold at least 1 record.");
+        caches.add(this);
+    }
+
+    /**
+     * <p>Returns the record with the ID, loading it if it isn't cached.</p>
+     * <p>If another thread is already loading the same ID, waits for its result instead of loading it again.</p>
+     * @param id The record's ID.
+     * @param loader Loads the record from the database. Returns null if it doesn't exist.
+     * @return The record, or null if it doesn't exist.
+     */
+    public V get(int id, IntFunction<V> loader) {
+        Entry<V> entry = lookup(id);
+        if (entry != null) {
+            if (entry.value != null)
+                hits.increment();
+            else
+                negativeHits.increment();
+            return entry.value;
+        }
+
+        CompletableFuture<V> load = new CompletableFuture<>();
+        CompletableFuture<V> running;
+        long stamp = lock.writeLock();
+        try {
+            running = loading.get(id);
+            if (running == null)
+                loading.put(id, load);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (running != null) {
+            sharedLoads.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                //The other load failed, so this one gets its own try.
+                return get(id, loader);
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            //A load may have finished between the first lookup and claiming this one.
+            entry = lookup(id);
+            if (entry != null) {
+                load.complete(entry.value);
+                return entry.value;
+            }
+            misses.increment();
+            V value = loader.apply(id);
+            loadNanos.add(System.nanoTime() - start);
+            if (value != null)
+                store(id, value, ttlNanos);
+            else if (negativeTtlNanos > 0)
+                store(id, null, negativeTtlNanos);
+            load.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            stamp = lock.writeLock();
+            try {
+                loading.remove(id, load);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Returns the record with the ID if it is cached, without loading it.
+     * @param id The record's ID.
+     * @return The record, or null if it isn't cached.
+     */
+    public V getIfPresent(int id) {
+        Entry<V> entry = lookup(id);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Returns the cached record, or caches the one made by the factory. Does not touch the database.
+     * @param id The record's ID.
+     * @param factory Makes the record if it isn't cached.
+     * @return The cached record.
+     */
+    public V computeIfAbsent(int id, IntFunction<V> factory) {
+        V value = getIfPresent(id);
+        if (value != null)
+            return value;
+        return merge(id, factory.apply(id), (cached, made) -> cached);
+    }
+
+    /**
+     * Caches a record, combining it with the cached one if there is one.
+     * @param id The record's ID.
+     * @param value The record.
+     * @param combine Picks which record to keep, given the cached one and the new one.
+     * @return The record kept in the cache.
+     */
+    public V merge(int id, V value, BinaryOperator<V> combine) {
+        long now = System.nanoTime();
+        long stamp = lock.writeLock();
+        try {
+            Entry<V> entry = entries.get(id);
+            V keep = entry != null && entry.value != null && !entry.isExpired(now) ?
+                    combine.apply(entry.value, value) : value;
+            if (entry == null || keep != entry.value) {
+                entries.put(id, new Entry<>(keep, expiry(ttlNanos), clock.incrementAndGet()));
+                evictIfFull();
+            }
+            return keep;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Caches a record, replacing any cached one.
+     * @param id The record's ID.
+     * @param value The record.
+     */
+    public void put(int id, V value) {
+        store(id, value, ttlNanos);
+    }
+
+    /**
+     * Removes a record, for example after it was deleted.
+     * @param id The record's ID.
+     */
+    public void remove(int id) {
+        long stamp = lock.writeLock();
+        try {
+            entries.remove(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes every cached record whose ID isn't in a set, for after the whole table was read again. Remembered misses
+     * are kept.
+     * @param ids The IDs that still exist.
+     * @return The number of records removed.
+     */
+    public int retainAll(IntObjectMap<?> ids) {
+        int removed = 0;
+        long stamp = lock.writeLock();
+        try {
+            for (int id : entries.keys()) {
+                if (entries.get(id).value != null && !ids.containsKey(id)) {
+                    entries.remove(id);
+                    removed++;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return removed;
+    }
+
+    /**
+     * Returns a copy of every cached record that hasn't expired.
+     * @return The records.
+     */
+    public List<V> values() {
+        ArrayList<V> values = new ArrayList<>();
+        long now = System.nanoTime();
+        long stamp = lock.readLock();
+        try {
+            entries.forEach((id, entry) -> {
+                //Expired entries are left for lookups or eviction to drop.
+                if (entry.value != null && !entry.isExpired(now))
+                    values.add(entry.value);
+            });
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the cache's current counters.
+     * @return The statistics.
+     */
+    public Stats stats() {
+        long loads = misses.sum();
+        int size;
+        long stamp = lock.readLock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return new Stats(name, size, hits.sum(), negativeHits.sum(), loads, sharedLoads.sum(),
+                loads == 0 ? 0 : loadNanos.sum() / 1_000_000d / loads, evictions.sum(), expirations.sum());
+    }
+
+    /**
+     * Returns the counters of every record cache.
+     * @return The statistics, one per cache.
+     */
+    public static List<Stats> allStats() {
+        return caches.stream().map(RecordCache::stats).toList();
+    }
+
+    /**
+     * Looks up an entry, dropping it if it has expired. Tries an optimistic read first and only takes the read lock if
+     * a write got in the way.
+     * @param id The record's ID.
+     * @return The entry, or null if there is none.
+     */
+    private Entry<V> lookup(int id) {
+        long stamp = lock.tryOptimisticRead();
+        Entry<V> entry = entries.get(id);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                entry = entries.get(id);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (entry == null)
+            return null;
+        if (entry.isExpired(System.nanoTime())) {
+            stamp = lock.writeLock();
+            try {
+                if (entries.remove(id, entry))
+                    expirations.increment();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            return null;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Adds an entry, replacing any cached one.
+     * @param id The record's ID.
+     * @param value The record, or null to remember a miss.
+     * @param ttl How long to keep it, in nanoseconds.
+     */
+    private void store(int id, V value, long ttl) {
+        long expiresAt = expiry(ttl), access = clock.incrementAndGet();
+        long stamp = lock.writeLock();
+        try {
+            entries.put(id, new Entry<>(value, expiresAt, access));
+            evictIfFull();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * <p>Drops expired entries, then the least recently used ones, once the cache is over its cap. Must hold the write
+     * lock.</p>
+     * <p>Waits until the cache is about 10% over before doing anything, then trims it back down to the cap in one go,
+     * so the sort is paid for once per batch rather than on every insert.</p>
+     */
+    private void evictIfFull() {
+        int slack = Math.max(1, maxSize / 10);
+        if (entries.size() <= maxSize + slack)
+            return;
+        long now = System.nanoTime();
+        int[] ids = entries.keys();
+        //Hits keep writing lastAccess without the lock, so each is read once here and both the sort and the eviction
+        //below use that copy. Expired entries are marked so they are never picked.
+        long[] access = new long[ids.length];
+        long[] sorted = new long[ids.length];
+        int live = 0;
+        for (int i = 0; i < ids.length; i++) {
+            Entry<V> entry = entries.get(ids[i]);
+            if (entry.isExpired(now)) {
+                entries.remove(ids[i]);
+                expirations.increment();
+                access[i] = Long.MAX_VALUE;
+            } else
+                sorted[live++] = access[i] = entry.lastAccess;
+        }
+        int excess = live - maxSize;
+        if (excess <= 0)
+            return;
+        //Everything last used at or before the cutoff goes; ties at the cutoff can drop a few extra.
+        Arrays.sort(sorted, 0, live);
+        long cutoff = sorted[excess - 1];
+        for (int i = 0; i < ids.length; i++) {
+            if (access[i] <= cutoff) {
+                entries.remove(ids[i]);
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Works out when an entry added now should expire.
+     * @param ttl The time to live in nanoseconds, or 0 for never.
+     * @return The expiry time, or 0 for never.
+     */
+    private static long expiry(long ttl) {
+        if (ttl <= 0)
+            return 0;
+        long expiresAt = System.nanoTime() + ttl;
+        return expiresAt == 0 ? 1 : expiresAt;
+    }
+}
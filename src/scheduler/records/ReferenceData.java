@@ -0,0 +1,175 @@
+package scheduler.records;
+
+import scheduler.DataAccess;
+import scheduler.DefaultLocale;
+import scheduler.IntObjectMap;
+import scheduler.JDBC;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ToIntFunction;
+
+/**
+ * <p>Fills the record caches for countries, divisions, customers, users, and contacts in one go.</p>
+ * <p>Each table is read with a single query, and the five queries run at the same time. Divisions and customers are
+ * read as plain rows and linked to their countries and divisions once everything has arrived, so no query has to wait
+ * on another. Once loaded, the calendar's lookups by ID are served from the caches. Since every table is read in full,
+ * cached rows a table no longer has, such as ones deleted by another client, are dropped.</p>
+ * <p>If the caches were filled from a {@link ReferenceSnapshot} at startup, the reference tables are only queried
+ * again if the database no longer matches the snapshot's version; customers are always loaded.</p>
+ */
+public final class ReferenceData {
+    private ReferenceData() {}
+
+    /**
+     * How much was loaded and how long it took.
+     * @param countries Number of countries loaded.
+     * @param divisions Number of divisions loaded.
+     * @param customers Number of customers loaded.
+     * @param users Number of users loaded.
+     * @param contacts Number of contacts loaded.
+     * @param millis Time taken for the whole preload.
+     * @param fromSnapshot True if the reference tables matched the snapshot and weren't queried.
+     */
+    public record Stats(int countries, int divisions, int customers, int users, int contacts, long millis,
+                        boolean fromSnapshot) {
+        @Override
+        public String toString() {
+            return String.format("%d countries, %d divisions, %d customers, %d users, %d contacts in %dms%s",
+                    countries, divisions, customers, users, contacts, millis, fromSnapshot ? " (snapshot current)" : "");
+        }
+    }
+
+    //Rows read before the records they point to exist.
+    private record DivisionRow(int id, String name, int countryID) { }
+    private record CustomerRow(int id, String name, String address, String postal_code, String phone_number,
+                               ZonedDateTime create_date, String created_by, ZonedDateTime last_update,
+                               String last_updated_by, int divisionID) { }
+
+    /**
+     * <p>Loads every country, division, customer, user, and contact into the record caches.</p>
+     * <p>Never blocks a data access thread waiting on another: the queries are queued on the pool and the linking runs
+     * once the last of them completes, so it works with any pool size.</p>
+     * @return A future completed with how much was loaded and how long it took, or exceptionally if a query failed.
+     */
+    public static CompletableFuture<Stats> preload() {
+        long start = System.nanoTime();
+
+        CompletableFuture<ArrayList<CustomerRow>> customers = DataAccess.supply(() -> {
+            ArrayList<CustomerRow> rows = new ArrayList<>();
+            return JDBC.processStreaming("SELECT Customer_ID, Customer_Name, Address, Postal_Code, Phone, Create_Date, " +
+                    "Created_By, Last_Update, Last_Updated_By, Division_ID FROM customers;", (rs, row) ->
+                    rows.add(new CustomerRow(rs.getInt(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                            rs.getString(5), DefaultLocale.userDateTime(rs.getTimestamp(6)), rs.getString(7),
+                            DefaultLocale.userDateTime(rs.getTimestamp(8)), rs.getString(9), rs.getInt(10)))) ? rows : null;
+        });
+
+        return DataAccess.supply(ReferenceSnapshot::queryVersion).thenCompose(version -> {
+            if (ReferenceSnapshot.isCurrent(version)) {
+                return customers.thenApply(rows -> {
+                    Stats stats = new Stats(0, 0, linkCustomers(rows), 0, 0,
+                            (System.nanoTime() - start) / 1_000_000, true);
+                    System.out.println("Preloaded reference data: " + stats);
+                    return stats;
+                });
+            }
+
+            CompletableFuture<ArrayList<Country>> countries = DataAccess.supply(() -> {
+                ArrayList<Country> rows = new ArrayList<>();
+                return JDBC.processStreaming("SELECT Country_ID, Country FROM countries;", (rs, row) ->
+                        rows.add(new Country(rs.getInt(1), rs.getString(2)))) ? rows : null;
+            });
+            CompletableFuture<ArrayList<DivisionRow>> divisions = DataAccess.supply(() -> {
+                ArrayList<DivisionRow> rows = new ArrayList<>();
+                return JDBC.processStreaming("SELECT Division_ID, Division, Country_ID FROM first_level_divisions;", (rs, row) ->
+                        rows.add(new DivisionRow(rs.getInt(1), rs.getString(2), rs.getInt(3)))) ? rows : null;
+            });
+            CompletableFuture<ArrayList<User>> users = DataAccess.supply(() -> {
+                ArrayList<User> rows = new ArrayList<>();
+                return JDBC.processStreaming("SELECT User_ID, User_Name FROM users;", (rs, row) ->
+                        rows.add(new User(rs.getString(2), rs.getInt(1)))) ? rows : null;
+            });
+            CompletableFuture<ArrayList<Contact>> contacts = DataAccess.supply(() -> {
+                ArrayList<Contact> rows = new ArrayList<>();
+                return JDBC.processStreaming("SELECT Contact_ID, Contact_Name, Email FROM contacts;", (rs, row) ->
+                        rows.add(new Contact(rs.getInt(1), rs.getString(2), rs.getString(3)))) ? rows : null;
+            });
+
+            //Every future is complete by the time this runs, so the joins below don't wait. A table whose query failed is
+            //null, and keeps what is already cached.
+            return CompletableFuture.allOf(customers, countries, divisions, users, contacts).thenApply(ignored -> {
+                //Link in dependency order: countries, then divisions, then customers. Each table read in full also
+                //drops the cached rows it no longer has.
+                if (countries.join() != null) {
+                    for (Country country : countries.join())
+                        Country.cache(country.id(), country.name());
+                    Country.retainAll(ids(countries.join(), Country::id));
+                }
+                ArrayList<Divisions> linked = new ArrayList<>();
+                if (divisions.join() != null) {
+                    for (DivisionRow row : divisions.join()) {
+                        Country country = Country.get(row.countryID());
+                        if (country != null)
+                            linked.add(Divisions.cache(row.id(), row.name(), country));
+                    }
+                    Divisions.retainAll(ids(divisions.join(), DivisionRow::id));
+                }
+                int customerCount = linkCustomers(customers.join());
+                if (users.join() != null) {
+                    for (User user : users.join())
+                        User.cache(user.id(), user.username());
+                    User.retainAll(ids(users.join(), User::id));
+                }
+                if (contacts.join() != null) {
+                    for (Contact contact : contacts.join())
+                        Contact.cache(contact.id(), contact.name(), contact.email());
+                    Contact.retainAll(ids(contacts.join(), Contact::id));
+                }
+
+                if (version != null && countries.join() != null && divisions.join() != null && users.join() != null &&
+                        contacts.join() != null)
+                    ReferenceSnapshot.save(version, countries.join(), linked, contacts.join(), users.join());
+
+                Stats stats = new Stats(size(countries.join()), linked.size(), customerCount, size(users.join()),
+                        size(contacts.join()), (System.nanoTime() - start) / 1_000_000, false);
+                System.out.println("Preloaded reference data: " + stats);
+                return stats;
+            });
+        });
+    }
+
+    /**
+     * Links customer rows to their divisions and caches them, dropping cached customers that aren't in the rows.
+     * Divisions must already be cached.
+     * @param rows Every customer row, or null if they couldn't be read, which leaves the cache as it is.
+     * @return The number of customers cached.
+     */
+    private static int linkCustomers(ArrayList<CustomerRow> rows) {
+        if (rows == null)
+            return 0;
+        int count = 0;
+        for (CustomerRow row : rows) {
+            Divisions division = Divisions.get(row.divisionID());
+            if (division != null) {
+                Customer.cache(new Customer(row.id(), row.name(), row.address(), row.postal_code(), row.phone_number(),
+                        row.create_date(), row.created_by(), row.last_update(), row.last_updated_by(), division));
+                count++;
+            }
+        }
+        Customer.retainAll(ids(rows, CustomerRow::id));
+        return count;
+    }
+
+    private static <T> IntObjectMap<Boolean> ids(List<T> rows, ToIntFunction<T> id) {
+        IntObjectMap<Boolean> ids = new IntObjectMap<>(rows.size());
+        for (T row : rows)
+            ids.put(id.applyAsInt(row), Boolean.TRUE);
+        return ids;
+    }
+
+    private static int size(List<?> rows) {
+        return rows == null ? 0 : rows.size();
+    }
+}
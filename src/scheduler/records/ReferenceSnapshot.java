@@ -0,0 +1,198 @@
+package scheduler.records;
+
+import scheduler.IntObjectMap;
+import scheduler.JDBC;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * <p>Keeps a copy of the countries, divisions, contacts, and users on disk, so they don't have to be queried on every
+ * start.</p>
+ * <p>The snapshot is a small binary file, kept per user in <code>scheduler/reference_snapshot.bin</code> under the
+ * user's cache directory: <code>$XDG_CACHE_HOME</code>, <code>%LOCALAPPDATA%</code>, or <code>~/.cache</code>,
+ * whichever is set first. The <code>scheduler.snapshot.file</code> system property overrides the location. It is
+ * loaded into the record caches at startup, before the database has been asked for anything, and is tagged with a
+ * version built from each table's row count and a checksum of its rows. {@link ReferenceData#preload()} compares that
+ * version against the database in the background, and only queries the tables again, and rewrites the snapshot, if
+ * they changed. Passwords are never written.</p>
+ */
+public final class ReferenceSnapshot {
+    private ReferenceSnapshot() {}
+
+    private static final int MAGIC = 0x53434852; //"SCHR"
+    private static final int FORMAT = 1;
+    private static final Path file = System.getProperty("scheduler.snapshot.file") != null ?
+            Path.of(System.getProperty("scheduler.snapshot.file")) : cacheDirectory().resolve("reference_snapshot.bin");
+
+    //Row count and checksum of every reference table, in one round trip.
+    private static final String VERSION_QUERY = "SELECT " +
+            "(SELECT CONCAT(COUNT(*), ':', COALESCE(BIT_XOR(CRC32(CONCAT_WS('|', Country_ID, Country))), 0)) FROM countries), " +
+            "(SELECT CONCAT(COUNT(*), ':', COALESCE(BIT_XOR(CRC32(CONCAT_WS('|', Division_ID, Division, Country_ID))), 0)) FROM first_level_divisions), " +
+            "(SELECT CONCAT(COUNT(*), ':', COALESCE(BIT_XOR(CRC32(CONCAT_WS('|', Contact_ID, Contact_Name, Email))), 0)) FROM contacts), " +
+            "(SELECT CONCAT(COUNT(*), ':', COALESCE(BIT_XOR(CRC32(CONCAT_WS('|', User_ID, User_Name))), 0)) FROM users);";
+
+    private static volatile String loadedVersion;
+
+    /**
+     * <p>Loads the snapshot into the record caches, if there is one.</p>
+     * <p>Reads only the local file. A missing, old, or damaged snapshot is ignored and the caches fill from the database
+     * as usual.</p>
+     * @return True if the snapshot was loaded.
+     */
+    public static boolean load() {
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+                return false;
+            String version = in.readUTF();
+
+            int count = in.readInt();
+            IntObjectMap<Country> countries = new IntObjectMap<>(count);
+            for (int i = 0; i < count; i++) {
+                int id = in.readInt();
+                countries.put(id, Country.cache(id, readString(in)));
+            }
+            int divisions = in.readInt();
+            for (int i = 0; i < divisions; i++) {
+                int id = in.readInt();
+                String name = readString(in);
+                Country country = countries.get(in.readInt());
+                if (country != null)
+                    Divisions.cache(id, name, country);
+            }
+            int contacts = in.readInt();
+            for (int i = 0; i < contacts; i++)
+                Contact.cache(in.readInt(), readString(in), readString(in));
+            int users = in.readInt();
+            for (int i = 0; i < users; i++)
+                User.cache(in.readInt(), readString(in));
+
+            loadedVersion = version;
+            System.out.println("Loaded reference snapshot: " + count + " countries, " + divisions + " divisions, " +
+                    contacts + " contacts, " + users + " users in " + (System.nanoTime() - start) / 1_000_000 + "ms");
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not load reference snapshot, ignoring it.");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Checks whether a snapshot was loaded at startup.
+     * @return True if the caches were filled from a snapshot.
+     */
+    public static boolean isLoaded() {
+        return loadedVersion != null;
+    }
+
+    /**
+     * Checks whether the loaded snapshot still matches the database.
+     * @param version The database's current version, from {@link #queryVersion()}.
+     * @return True if a snapshot was loaded and its version matches.
+     */
+    static boolean isCurrent(String version) {
+        return version != null && version.equals(loadedVersion);
+    }
+
+    /**
+     * Asks the database for the current version of the reference tables.
+     * @return The version, or null if it couldn't be read.
+     */
+    static String queryVersion() {
+        ResultSet rs = JDBC.getResults(VERSION_QUERY);
+        if (rs != null) {
+            try {
+                if (rs.next())
+                    return rs.getString(1) + "/" + rs.getString(2) + "/" + rs.getString(3) + "/" + rs.getString(4);
+            } catch (SQLException ignored) {}
+        }
+        return null;
+    }
+
+    /**
+     * Writes a new snapshot. The file is written next to the old one and then moved over it, so a crash never leaves a
+     * half written snapshot behind.
+     * @param version The version the rows were read at.
+     * @param countries Every country.
+     * @param divisions Every division.
+     * @param contacts Every contact.
+     * @param users Every user.
+     */
+    static void save(String version, Collection<Country> countries, Collection<Divisions> divisions,
+                     Collection<Contact> contacts, Collection<User> users) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            if (file.getParent() != null)
+                Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeUTF(version);
+                out.writeInt(countries.size());
+                for (Country country : countries) {
+                    out.writeInt(country.id());
+                    writeString(out, country.name());
+                }
+                out.writeInt(divisions.size());
+                for (Divisions division : divisions) {
+                    out.writeInt(division.id());
+                    writeString(out, division.name());
+                    out.writeInt(division.country().id());
+                }
+                out.writeInt(contacts.size());
+                for (Contact contact : contacts) {
+                    out.writeInt(contact.id());
+                    writeString(out, contact.name());
+                    writeString(out, contact.email());
+                }
+                out.writeInt(users.size());
+                for (User user : users) {
+                    out.writeInt(user.id());
+                    writeString(out, user.username());
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            loadedVersion = version;
+        } catch (IOException e) {
+            System.out.println("Could not save reference snapshot.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the directory this application keeps per user cache files in.
+     * @return The directory, which may not exist yet.
+     */
+    private static Path cacheDirectory() {
+        for (String variable : new String[]{"XDG_CACHE_HOME", "LOCALAPPDATA"}) {
+            String base = System.getenv(variable);
+            if (base != null && !base.isEmpty())
+                return Path.of(base, "scheduler");
+        }
+        return Path.of(System.getProperty("user.home"), ".cache", "scheduler");
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
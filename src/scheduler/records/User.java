@@ -1,6 +1,8 @@
 package scheduler.records;
 
+import scheduler.DataAccess;
 import scheduler.DefaultLocale;
+import scheduler.IntObjectMap;
 import scheduler.JDBC;
 import scheduler.Main;
 
@@ -13,7 +15,9 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Holds records for Users and functions related to them.
@@ -31,7 +35,7 @@ public record User(String username, int id) {
      * Fake user representing all users. Used for admins.
      */
     public static User ALL = new User("All",-1);
-    private static final HashMap<Integer, User> users = new HashMap<>();
+    private static final RecordCache<User> users = new RecordCache<>("users", 1_000, 0, 30);
 
     /**
      * Enables different scenes to listen for user changes.
@@ -43,6 +47,17 @@ public record User(String username, int id) {
          * Called when {@link User#current} is updated.
          */
         void onUserChange();
+
+        /**
+         * <p>Called instead of {@link #onUserChange()} when the listeners are notified together.</p>
+         * <p>Runs on the JavaFX thread and should only read what the load needs. The returned load is run in the
+         * background alongside every other listener's, and the action it returns is applied on the JavaFX thread once
+         * they have all finished. By default there is nothing to load, and {@link #onUserChange()} is the action.</p>
+         * @return The listener's load.
+         */
+        default Supplier<Runnable> loadUserChange() {
+            return () -> this::onUserChange;
+        }
     }
 
     private static final ArrayList<UserListener> listeners = new ArrayList<>();
@@ -57,12 +72,16 @@ public record User(String username, int id) {
     }
 
     /**
-     * Notifies all listeners via function listed in the UserListener interface.
+     * <p>Notifies all listeners via function listed in the UserListener interface.</p>
+     * <p>Each listener's load is started in listener order, then every load runs at the same time and the results are
+     * applied together once the slowest one finishes. See {@link DataAccess#fanOut(List)}.</p>
      */
     public static void notifyListeners() {
+        ArrayList<Supplier<Runnable>> loads = new ArrayList<>();
         for (UserListener listener:listeners) {
-            listener.onUserChange();
+            loads.add(listener.loadUserChange());
         }
+        DataAccess.fanOut(loads);
     }
 
     /**
@@ -73,14 +92,31 @@ public record User(String username, int id) {
     public static User get(int user_id) {
         if(user_id<0)
             return ALL;
-        if(users.containsKey(user_id))
-            return users.get(user_id);
-        ResultSet rs = JDBC.getResults("SELECT User_Name from users WHERE User_ID="+user_id+";");
+        return users.get(user_id, User::load);
+    }
+
+    /**
+     * Returns a user if it is cached, without querying the database, so it is safe on the JavaFX thread.
+     * @param user_id The User's ID.
+     * @return The User, or null if it isn't cached.
+     */
+    public static User getIfCached(int user_id) {
+        if(user_id<0)
+            return ALL;
+        return users.getIfPresent(user_id);
+    }
+
+    /**
+     * Loads a user from the database.
+     * @param user_id The User's ID.
+     * @return The User, or null if not found.
+     */
+    private static User load(int user_id) {
+        ResultSet rs = JDBC.getResults("SELECT User_Name from users WHERE User_ID=?;", user_id);
         if(rs!=null){
             try {
                 if (rs.next()) {
                     User user = new User(rs.getString(1), user_id);
-                    users.put(user_id, user);
                     return user;
                 }
             }catch(SQLException ignored){}
@@ -88,16 +124,35 @@ public record User(String username, int id) {
         return null;
     }
 
+    /**
+     * Caches a user built from a row that was already read, replacing the cached one if it has changed.
+     * @param id The User's ID.
+     * @param username The User's name.
+     * @return The cached User.
+     */
+    static User cache(int id, String username) {
+        return users.merge(id, new User(username, id), (cached, read) ->
+                Objects.equals(cached.username, read.username) ? cached : read);
+    }
+
+    /**
+     * Drops cached users that weren't in a full read of the table, such as ones deleted since they were cached.
+     * @param ids The ID of every user read.
+     */
+    static void retainAll(IntObjectMap<?> ids) {
+        users.retainAll(ids);
+    }
+
     /**
      * Gets a list of all Users. Primarily needed for administrative purposes.
      * @return The list of all users.
      */
     public static Collection<User> getUsers() {
-        JDBC.process("SELECT * from users ORDER BY User_Name",(set,row,count)->{
-            if(!users.containsKey(set.getInt(1)))
-                users.put(set.getInt(1),new User(set.getString(2),set.getInt(1)));
-        });
-        return users.values();
+        ArrayList<User> list = new ArrayList<>();
+        JDBC.process("SELECT * from users ORDER BY User_Name",(set,row,count)->
+            list.add(cache(set.getInt(1),set.getString(2)))
+        );
+        return list;
     }
 
     /**
@@ -108,18 +163,26 @@ public record User(String username, int id) {
      */
     public static boolean attemptLogin(String username, String password) {
         try {
-            ResultSet set = JDBC.getResults("SELECT * from users WHERE User_Name='"+username+"' AND Password='"+password+"';");
+            ResultSet set = JDBC.getResults("SELECT * from users WHERE User_Name=? AND Password=?;", username, password);
             if(set==null)
                 return false;
             if(set.next())
             {
-                if(users.containsKey(set.getInt(1)))
-                    current=users.get(set.getInt(1));
-                else{
-                    current = new User(set.getString(2),set.getInt(1));
-                    users.put(current.id,current);
+                current=cache(set.getInt(1),set.getString(2));
+                if(ReferenceSnapshot.isLoaded()) {
+                    //The snapshot already filled the reference caches, so the views can load right away. Reload them
+                    //only if the preload finds the snapshot was out of date.
+                    DataAccess.runOnFxThread(User::notifyListeners);
+                    ReferenceData.preload().thenAccept(stats -> {
+                        if (!stats.fromSnapshot())
+                            DataAccess.runOnFxThread(User::notifyListeners);
+                    });
+                }
+                else {
+                    //Fill the caches before the listeners load, so their lookups don't have to go to the database.
+                    ReferenceData.preload()
+                            .whenComplete((stats, e) -> DataAccess.runOnFxThread(User::notifyListeners));
                 }
-                notifyListeners();
                 Main.setScene(Main.calender_scene);
 
                 return true;